@@ -3,17 +3,21 @@ package com.blogspot.mikelaud.re;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.FlowLayout;
-import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.GraphicsEnvironment;
 import java.awt.GridLayout;
 import java.awt.Insets;
 import java.awt.RenderingHints;
+import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.image.BufferStrategy;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 import javax.swing.JButton;
 import javax.swing.JComponent;
@@ -32,27 +36,74 @@ import javax.swing.RepaintManager;
  *                    - usage of a high resolution timer for time based animations
  *                    - stretching an application's graphics with resizes
  *                    - actively rendering Swing components
+ *                    - per circle colors, drawn in color batches
+ *                    - a pan (drag) and zoom (mouse wheel) camera over a
+ *                      large world, drawing only what it sees
+ *                    - analytic motion, circles placed in closed form at
+ *                      draw time instead of being stepped every update
+ *                    - measuring the time to the first frame, and a fast
+ *                      start mode (-Dre.fastStart=true) shortening it
+ *                    - handing input from the EDT to the game loop through
+ *                      a lock free command queue
+ *                    - a sparse tiled drawing image for very large canvases
+ *                      (-Dre.tiledDrawing=true), only keeping the tiles
+ *                      circles were drawn on
  * @author  James Murphy
  * @version 06/15/2012, original: 04/16/10
  */
 public class ActiveCircles extends JFrame implements ActionListener {
 	private static final long serialVersionUID = 1L;
 
+	// The world is this many times wider and taller than the drawing image
+	private static final int worldScale = 4;
+	// How many circles the more/fewer buttons add or remove
+	private static final int circleStep = 100;
+	// Set true to draw to a TiledFramebuffer instead of the drawing image
+	private static final boolean tiledDrawing = Boolean
+			.getBoolean("re.tiledDrawing");
+
+	// Commands sent from the EDT to the game loop (see CommandQueue)
+	private static final int changeColorsCommand = 1;
+	private static final int limitFpsCommand = 2; // 1 to limit, 0 not to
+	private static final int motionModeCommand = 3; // ordinal of the mode
+	private static final int addCirclesCommand = 4; // how many
+	private static final int removeCirclesCommand = 5; // how many
+	private static final int resizeCommand = 6; // width << 32 | height
+	private static final int panCommand = 7; // float bits of dx << 32 | dy
+	private static final int zoomCommand = 8; // float bits of the factor
+	// values() hands out a new array on every call
+	private static final CircleWorld.MotionMode[] motionModes =
+			CircleWorld.MotionMode.values();
+
 	// Used to randomize circle positions and colors
 	private Random random;
-	// List of our sprites
-	private MovingCircle[] circles;
+	// Holds our sprites, in a world larger than what we see of it
+	private CircleWorld world;
+	// Looks at the part of the world we draw, the user pans and zooms it
+	private Camera camera;
+	// The part of the world seen by the camera, updated every frame
+	private Rectangle2D.Float viewport;
 	// Manages the buffering of the program
 	private BufferStrategy bufferStrategy;
 	// Set true to limit fps (sleep the thread), false to not
+	// (only the game loop uses it, the EDT sends a command to change it)
 	private boolean limitingFPS;
 	// Button to randomize circle colors
 	private JButton changeColor;
+	// Buttons to add and remove circles
+	private JButton moreCircles;
+	private JButton fewerCircles;
 	// Button to switch the value of limitingFPS
 	private JButton limitFps;
-	// The color of the current circle, ideally, we would probably want this
-	// part of the Circle class, keeping it here for simplicity.
-	private Color circleColor;
+	// Button to switch between integrated and analytic circle motion
+	private JButton motionMode;
+	// Button to make the drawing image as large as the window
+	private JButton fitImage;
+	// Input from the EDT waiting for the game loop, which drains it once per
+	// frame, so no state changes while a frame is updated or drawn
+	private CommandQueue commands;
+	// Carries out the drained commands, on the game loop's thread
+	private CommandQueue.Handler commandHandler;
 	// Holds the latest calculated value of frames per second
 	private int fps;
 	// We draw to this image always, then stretch it over the entire frame.
@@ -62,6 +113,8 @@ public class ActiveCircles extends JFrame implements ActionListener {
 	// the coordinate system for the circles to stay on. This help's us
 	// obtain our goal of stretching the game's graphics on resizes.
 	private BufferedImage drawing;
+	// Replaces the drawing image when tiledDrawing is set, null otherwise
+	private TiledFramebuffer tiles;
 	// Only an instance variable just because we call this so many times. Note
 	// this may be problematic if your insets change over the course of the
 	// application while still referring to the initial insets. (Like if you go
@@ -70,12 +123,16 @@ public class ActiveCircles extends JFrame implements ActionListener {
 
 	/**
 	 * @param args
-	 *            Contains nothing for this program.
+	 *            Optionally the number of circles, for example the one
+	 *            CapacityRamp found for this machine.
 	 */
 	public static void main(String[] args)
 	{
-		ActiveCircles activeCirclesExample = new ActiveCircles(50,
-				700, 500);
+		// Same density of circles as on a single screen, unless told otherwise
+		int numberOfCircles = (args.length > 0) ? Integer.parseInt(args[0])
+				: 50 * worldScale * worldScale;
+		ActiveCircles activeCirclesExample = new ActiveCircles(
+				numberOfCircles, 700, 500);
 		activeCirclesExample.gameLoop();
 	}
 
@@ -89,13 +146,58 @@ public class ActiveCircles extends JFrame implements ActionListener {
 	 * @param height
 	 *            The height of the program's inside portion of the frame
 	 */
-	public ActiveCircles(int numberOfCircles, int width, int height)
+	public ActiveCircles(final int numberOfCircles, final int width,
+			final int height)
 	{
 		super();
 
+		// In fast start mode the scene and the drawing image are made on
+		// other threads while we set up Swing here, and the frame is only
+		// shown once everything is ready, so it never shows up half done
+		boolean fastStart = FastStart.isEnabled();
+		random = new Random();
+		commands = new CommandQueue(1024);
+		commandHandler = new CommandHandler();
+		Future<CircleWorld> scene = null;
+		Future<BufferedImage> image = null;
+		if (fastStart)
+		{
+			scene = FastStart.submit("scene", new Callable<CircleWorld>()
+			{
+				public CircleWorld call()
+				{
+					CircleWorld newWorld = createWorld(numberOfCircles, width,
+							height);
+					FastStart.warmUp(newWorld, width, height);
+					return newWorld;
+				}
+			});
+			if (!tiledDrawing)
+			{
+				image = FastStart.submit("drawing image",
+						new Callable<BufferedImage>()
+						{
+							public BufferedImage call()
+							{
+								return createDrawing(width, height);
+							}
+						});
+			}
+		}
+
+		StartupProfiler.Stage stage = StartupProfiler.begin("frame");
 		setTitle("Active rendering with Swing and double buffering circles");
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		setVisible(true);
+		if (fastStart)
+		{
+			// Creating the native window is enough to know the insets, no
+			// need to show it (and then resize it in front of the user)
+			addNotify();
+		}
+		else
+		{
+			setVisible(true);
+		}
 		setIgnoreRepaint(true); // don't need Java painting for us
 
 		// Set up our NoRepaintManager, this will eliminate any remaining
@@ -113,36 +215,44 @@ public class ActiveCircles extends JFrame implements ActionListener {
 		int insetWide = insets.left + insets.right;
 		int insetTall = insets.top + insets.bottom;
 		setSize(getWidth() + insetWide, getHeight() + insetTall);
+		stage.end();
 
 		// Setting up the bouncing circles
-		circleColor = Color.DARK_GRAY;
-		circles = new MovingCircle[numberOfCircles];
-		random = new Random();
-		int circleWidth = 50;
-		int circleHeight = 50;
-		float maxSpeed = .5f;
-		for (int i = 0; i < circles.length; i++)
+		if (!fastStart)
 		{
-			circles[i] = new MovingCircle(random.nextFloat()
-					* (getWidth() - circleWidth), random.nextFloat()
-					* (getHeight() - circleHeight), circleWidth, circleHeight,
-					random.nextBoolean(), random.nextBoolean(), random
-							.nextFloat()
-							* maxSpeed);
+			stage = StartupProfiler.begin("scene");
+			world = createWorld(numberOfCircles, width, height);
+			stage.end();
 		}
+		camera = new Camera(width, height, width * worldScale, height
+				* worldScale);
+		viewport = new Rectangle2D.Float();
 
 		// Setting up the swing components
+		stage = StartupProfiler.begin("swing components");
 		JPanel programTitlePanel = new JPanel(new FlowLayout());
 		programTitlePanel.add(new JLabel(
 				"Actively rendering graphics and Swing components together!"));
 		changeColor = new JButton("Change color");
 		changeColor.addActionListener(this);
+		moreCircles = new JButton("More circles");
+		moreCircles.addActionListener(this);
+		fewerCircles = new JButton("Fewer circles");
+		fewerCircles.addActionListener(this);
 		JPanel changeColorPanel = new JPanel(new FlowLayout());
 		changeColorPanel.add(changeColor);
+		changeColorPanel.add(moreCircles);
+		changeColorPanel.add(fewerCircles);
 		limitFps = new JButton("Unlimit FPS");
 		limitFps.addActionListener(this);
+		motionMode = new JButton("Analytic motion");
+		motionMode.addActionListener(this);
+		fitImage = new JButton("Fit image");
+		fitImage.addActionListener(this);
 		JPanel limitFpsPanel = new JPanel(new FlowLayout());
 		limitFpsPanel.add(limitFps);
+		limitFpsPanel.add(motionMode);
+		limitFpsPanel.add(fitImage);
 
 		JPanel holder = new JPanel(new GridLayout(2, 1)); // 2 rows, 1 column
 		holder.add(programTitlePanel);
@@ -164,21 +274,85 @@ public class ActiveCircles extends JFrame implements ActionListener {
 
 		limitingFPS = true;
 
+		// Drag to pan and use the wheel to zoom, anywhere in the frame. The
+		// camera is only moved by the game loop, between two frames.
+		new CameraController(camera, getContentPane())
+		{
+			@Override
+			protected void pan(float dx, float dy)
+			{
+				send(panCommand, (long) Float.floatToIntBits(dx) << 32
+						| (Float.floatToIntBits(dy) & 0xFFFFFFFFL));
+			}
+
+			@Override
+			protected void zoom(float factor)
+			{
+				send(zoomCommand, Float.floatToIntBits(factor));
+			}
+		}.install();
+		stage.end();
+
 		// Create a buffer strategy using two buffers
+		stage = StartupProfiler.begin("buffer strategy");
 		createBufferStrategy(2);
 		// Keeping a reference of the strategy is handy
 		bufferStrategy = getBufferStrategy();
+		stage.end();
+
+		if (fastStart)
+		{
+			stage = StartupProfiler.begin("waiting for background");
+			world = FastStart.await(scene);
+			if (image != null)
+			{
+				drawing = FastStart.await(image);
+			}
+			stage.end();
+			setVisible(true);
+		}
+		else if (!tiledDrawing)
+		{
+			stage = StartupProfiler.begin("drawing image");
+			drawing = createDrawing(width, height);
+			stage.end();
+		}
+		if (tiledDrawing)
+		{
+			// The tiles replace the drawing image, which is never made at
+			// all, it would be the one huge allocation they avoid
+			tiles = createTiles(width, height);
+		}
+	}
+
+	/**
+	 * Sets up the bouncing circles, in a world worldScale times larger than
+	 * the drawing image. Doesn't touch Swing, so it may run on any thread.
+	 */
+	private CircleWorld createWorld(int numberOfCircles, int width, int height)
+	{
+		CircleWorld newWorld = new CircleWorld(width * worldScale, height
+				* worldScale);
+		for (int i = 0; i < numberOfCircles; i++)
+		{
+			newWorld.addRandomCircle(random);
+		}
+		return newWorld;
+	}
 
-		// Create an image to draw to, instead of the graphics
-		// object of the JFrame itself, because we can then stretch the image
-		// over the JFrame when the user resizes. This allows the application's
-		// graphics to grow or shrink with the initial size of the frame. Thus,
-		// a larger resizes make's the application's graphics look bigger.
-		// (Note that we are using the width and height from the constructor)
-		drawing = GraphicsEnvironment.getLocalGraphicsEnvironment()
+	/**
+	 * Create an image to draw to, instead of the graphics object of the
+	 * JFrame itself, because we can then stretch the image over the JFrame
+	 * when the user resizes. This allows the application's graphics to grow
+	 * or shrink with the initial size of the frame. Thus, a larger resizes
+	 * make's the application's graphics look bigger. Doesn't touch Swing, so
+	 * it may run on any thread.
+	 */
+	private static BufferedImage createDrawing(int width, int height)
+	{
+		return GraphicsEnvironment.getLocalGraphicsEnvironment()
 				.getDefaultScreenDevice().getDefaultConfiguration()
 				.createCompatibleImage(width, height);
-
 	}
 
 	/**
@@ -193,10 +367,16 @@ public class ActiveCircles extends JFrame implements ActionListener {
 		long nanoseconds = 0;
 		int frames = 0;
 		fps = 0;
+		// Counts every frame, for the flight recorder events
+		long frameNumber = 0;
 
 		// Just loop and loop forever, update state and then draw.
 		while (true)
 		{
+			CircleEvents.Frame frameEvent = new CircleEvents.Frame();
+			frameEvent.begin();
+			frameNumber++;
+
 			// Relating to updating animations and calculating FPS
 			long elapsedTime = System.nanoTime() - oldTime;
 			oldTime = oldTime + elapsedTime;
@@ -210,15 +390,28 @@ public class ActiveCircles extends JFrame implements ActionListener {
 				frames = 0;
 			}
 
-			// Update before we draw (because it makes more sense that way)
+			// Apply the input since the last frame, then update before we
+			// draw (because it makes more sense that way)
+			CircleEvents.Update updateEvent = new CircleEvents.Update();
+			updateEvent.begin();
+			commands.drain(commandHandler);
 			update(elapsedTime);
+			updateEvent.commit(frameNumber, world.getCircleCount());
 
 			// Then after everything is updated, we can draw what we updated
+			CircleEvents.Rasterize rasterizeEvent = new CircleEvents.Rasterize();
+			rasterizeEvent.begin();
+			rasterize();
+			rasterizeEvent.commit(frameNumber, world.getCircleCount());
+
+			// And put it on the screen
+			CircleEvents.Present presentEvent = new CircleEvents.Present();
+			presentEvent.begin();
 			Graphics2D g = null;
 			try
 			{
 				g = (Graphics2D) bufferStrategy.getDrawGraphics();
-				draw(g); // enter the method to draw everything
+				present(g);
 			}
 			finally
 			{
@@ -227,7 +420,10 @@ public class ActiveCircles extends JFrame implements ActionListener {
 			if (!bufferStrategy.contentsLost())
 			{
 				bufferStrategy.show();
+				StartupProfiler.frameShown();
 			}
+			presentEvent.commit(frameNumber, world.getCircleCount());
+			frameEvent.commit(frameNumber, world.getCircleCount());
 
 			// The sync call prevents possible event queue problems in Linux,
 			// I'm not sure if this call is needed anymore, it run's fine
@@ -266,10 +462,9 @@ public class ActiveCircles extends JFrame implements ActionListener {
 	 */
 	public void update(long elapsedTime)
 	{
-		for (MovingCircle circle : circles)
-		{
-			circle.update(elapsedTime);
-		}
+		// Only the part of the world around the camera is updated every time
+		camera.getViewport(viewport);
+		world.update(elapsedTime, viewport);
 	}
 
 	/**
@@ -280,6 +475,36 @@ public class ActiveCircles extends JFrame implements ActionListener {
 	 */
 	public void draw(Graphics2D g)
 	{
+		rasterize();
+		present(g);
+	}
+
+	/**
+	 * The tiled canvas replacing the drawing image. Its background is the
+	 * world's, there are no tiles for the gray outside of the world.
+	 */
+	private static TiledFramebuffer createTiles(int width, int height)
+	{
+		TiledFramebuffer newTiles = new TiledFramebuffer(width, height,
+				Color.LIGHT_GRAY);
+		newTiles.setAntialiasing(true);
+		return newTiles;
+	}
+
+	/**
+	 * Draws all the animations to the drawing image
+	 */
+	public void rasterize()
+	{
+		if (tiles != null)
+		{
+			// Only the tiles the circles land on are cleared and drawn
+			Rectangle2D tileViewport = tiles.begin(camera);
+			world.draw(tiles, tileViewport);
+			tiles.end();
+			return;
+		}
+
 		// Obtaining the graphics of our drawing image we use,
 		// we draw to this graphics object for the most part
 		Graphics2D drawingBoard = drawing.createGraphics();
@@ -293,24 +518,45 @@ public class ActiveCircles extends JFrame implements ActionListener {
 		// Always draw over the image with a blank background, so we don't
 		// see the last frame's drawings! (comment this out and see what
 		// happens, it's fun pressing the change color button rapidly too!)
-		drawingBoard.setColor(Color.LIGHT_GRAY);
+		// (Anything outside of the world stays gray)
+		drawingBoard.setColor(Color.GRAY);
 		drawingBoard.fillRect(0, 0, drawing.getWidth(), drawing.getHeight());
 
-		// Now draw everything to drawingBoard, location 0,0 will be top left
-		// corner within the borders of the window
-		drawingBoard.setColor(circleColor);
-		for (MovingCircle circle : circles)
-		{
-			circle.draw(drawingBoard);
-		}
+		// Now draw everything to drawingBoard, as seen by the camera, location
+		// 0,0 will be the top left corner of the world
+		camera.applyTo(drawingBoard, viewport);
+		drawingBoard.setColor(Color.LIGHT_GRAY);
+		drawingBoard.fillRect(0, 0, world.getWidth(), world.getHeight());
+		world.draw(drawingBoard, viewport);
+
+		drawingBoard.dispose();
+	}
 
+	/**
+	 * Stretches the drawing image over the window, and draws the Swing
+	 * components and the stats on top
+	 *
+	 * @param g
+	 *            The program's window's graphics object to draw too
+	 */
+	public void present(Graphics2D g)
+	{
 		// Now draw the drawing board to correct area of the JFrame's buffer
 		// and stretch that image to fill the entire JFrame
 		// NOTE: In this code example, we are doing this BEFORE we actively
 		// render Swing.
-		g.drawImage(drawing, insets.left, insets.top, this.getWidth()
-				- (insets.left + insets.right), this.getHeight()
-				- (insets.top + insets.bottom), null);
+		if (tiles != null)
+		{
+			tiles.present(g, insets.left, insets.top, this.getWidth()
+					- (insets.left + insets.right), this.getHeight()
+					- (insets.top + insets.bottom));
+		}
+		else
+		{
+			g.drawImage(drawing, insets.left, insets.top, this.getWidth()
+					- (insets.left + insets.right), this.getHeight()
+					- (insets.top + insets.bottom), null);
+		}
 
 		// Paint our Swing components, to the graphics object of the buffer, not
 		// the BufferedImage being used for the application's sprites.
@@ -330,122 +576,167 @@ public class ActiveCircles extends JFrame implements ActionListener {
 		// draw area on accident
 		int fontHeight = g.getFontMetrics(this.getFont()).getHeight();
 		g.drawString("FPS/UPS: " + fps, 0, fontHeight);
-
-		drawingBoard.dispose();
+		g.drawString("DRAWN: " + world.getDrawnCount() + "/"
+				+ world.getCircleCount(), 0, fontHeight * 2);
+		if (tiles != null)
+		{
+			g.drawString("TILES: " + tiles.getTileCount(), 0, fontHeight * 3);
+		}
 	}
 
-	public void actionPerformed(ActionEvent e)
+	/**
+	 * @return A few random colors to paint the circles with
+	 */
+	private Color[] randomPalette()
 	{
-		if (e.getSource() == changeColor)
+		Color[] palette = new Color[4];
+		for (int i = 0; i < palette.length; i++)
 		{
-			circleColor = new Color(random.nextInt(256), random.nextInt(256),
+			palette[i] = new Color(random.nextInt(256), random.nextInt(256),
 					random.nextInt(256));
 		}
-		if (e.getSource() == limitFps)
+		return palette;
+	}
+
+	/**
+	 * Gives every circle one of the palette's colors. The circles move to
+	 * their new color group right away, so drawing doesn't need to sort.
+	 *
+	 * @param palette
+	 *            The colors to pick from
+	 */
+	private void recolor(Color[] palette)
+	{
+		for (MovingCircle circle : world.getCircles())
 		{
-			limitingFPS = !limitingFPS;
-			if (limitingFPS)
-			{
-				limitFps.setText("Unlimit FPS");
-			}
-			else
-			{
-				limitFps.setText("Limit FPS");
-			}
+			circle.setColor(palette[random.nextInt(palette.length)]);
 		}
 	}
 
 	/**
-	 * A moving circle is a circle that moves around the screen bouncing off
-	 * walls
-	 *
-	 * @author James Murphy
+	 * Sends a command to the game loop, from any thread.
 	 */
-	class MovingCircle
+	private void send(int command, long argument)
 	{
-		private float x;
-		private float y;
-		private int circleWidth;
-		private int circleHeight;
-		private boolean down;
-		private boolean right;
-		private float speed; // pixels per nanosecond
-
-		public MovingCircle(float x, float y, int circleWidth,
-				int circleHeight, boolean down, boolean right, float speed)
+		if (!commands.offer(command, argument))
 		{
-			this.x = x;
-			this.y = y;
-			this.circleWidth = circleWidth;
-			this.circleHeight = circleHeight;
-			this.down = down;
-			this.right = right;
-			// convert pixels per millisecond to nano second
-			// a lot easier to originally think about speeds in milliseconds
-			this.speed = speed / 1000000;
+			// The game loop is stuck, at least let the user know the input
+			// got lost
+			Toolkit.getDefaultToolkit().beep();
 		}
+	}
 
-		/**
-		 * Update the circle, which for now is moving the circle, and detecting
-		 * collisions.
-		 *
-		 * @param elapsedTime
-		 *            The time that has elapsed since the last time the circle
-		 *            was updated.
-		 */
-		public void update(long elapsedTime)
+	public void actionPerformed(ActionEvent e)
+	{
+		// We are on the EDT here, so we never touch the game's state, we only
+		// tell the game loop what to do. The buttons show what they would
+		// switch to, so they know the current state without asking the loop.
+		if (e.getSource() == changeColor)
+		{
+			send(changeColorsCommand, 0);
+		}
+		if (e.getSource() == moreCircles)
+		{
+			send(addCirclesCommand, circleStep);
+		}
+		if (e.getSource() == fewerCircles)
 		{
-			float pixelMovement = elapsedTime * speed;
-			if (down)
+			send(removeCirclesCommand, circleStep);
+		}
+		if (e.getSource() == limitFps)
+		{
+			if (limitFps.getText().startsWith("Limit"))
 			{
-				y = y + pixelMovement;
+				limitFps.setText("Unlimit FPS");
+				send(limitFpsCommand, 1);
 			}
 			else
 			{
-				y = y - pixelMovement;
+				limitFps.setText("Limit FPS");
+				send(limitFpsCommand, 0);
 			}
-			if (right)
+		}
+		if (e.getSource() == motionMode)
+		{
+			if (motionMode.getText().startsWith("Analytic"))
 			{
-				x = x + pixelMovement;
+				motionMode.setText("Integrated motion");
+				send(motionModeCommand,
+						CircleWorld.MotionMode.ANALYTIC.ordinal());
 			}
 			else
 			{
-				x = x - pixelMovement;
-			}
-
-			// test if circle hit a side of the window
-			// move the circle off the wall also to prevent collision sticking
-			if (y < 0)
-			{
-				down = !down;
-				y = 0;
-			}
-			if (y > drawing.getHeight() - circleHeight)
-			{
-				down = !down;
-				y = drawing.getHeight() - circleHeight;
-			}
-			if (x < 0)
-			{
-				right = !right;
-				x = 0;
-			}
-			if (x > drawing.getWidth() - circleWidth)
-			{
-				right = !right;
-				x = drawing.getWidth() - circleWidth;
+				motionMode.setText("Analytic motion");
+				send(motionModeCommand,
+						CircleWorld.MotionMode.INTEGRATED.ordinal());
 			}
 		}
+		if (e.getSource() == fitImage)
+		{
+			// One image pixel per screen pixel, instead of stretching
+			int width = Math.max(1, getContentPane().getWidth());
+			int height = Math.max(1, getContentPane().getHeight());
+			send(resizeCommand, (long) width << 32 | height);
+		}
+	}
 
-		/**
-		 * Draw the circle
-		 *
-		 * @param g
-		 *            Graphics object to draw to
-		 */
-		public void draw(Graphics g)
+	/**
+	 * Carries out the commands sent by the EDT, on the game loop's thread.
+	 * Nothing in here allocates, except for what the command itself creates
+	 * (like new colors or circles).
+	 */
+	class CommandHandler implements CommandQueue.Handler
+	{
+		public void handle(int command, long argument)
 		{
-			g.fillOval((int) x, (int) y, circleWidth, circleHeight);
+			switch (command)
+			{
+			case changeColorsCommand:
+				recolor(randomPalette());
+				break;
+			case limitFpsCommand:
+				limitingFPS = (argument != 0);
+				break;
+			case motionModeCommand:
+				world.setMotionMode(motionModes[(int) argument]);
+				break;
+			case addCirclesCommand:
+				for (int i = 0; i < argument; i++)
+				{
+					world.addRandomCircle(random);
+				}
+				break;
+			case removeCirclesCommand:
+				List<MovingCircle> circles = world.getCircles();
+				for (int i = 0; i < argument && !circles.isEmpty(); i++)
+				{
+					world.remove(circles.get(circles.size() - 1));
+				}
+				break;
+			case resizeCommand:
+				int width = (int) (argument >>> 32);
+				int height = (int) argument;
+				if (tiles != null)
+				{
+					tiles = createTiles(width, height);
+				}
+				else
+				{
+					drawing = createDrawing(width, height);
+				}
+				camera.resize(width, height);
+				break;
+			case panCommand:
+				camera.pan(Float.intBitsToFloat((int) (argument >>> 32)),
+						Float.intBitsToFloat((int) argument));
+				break;
+			case zoomCommand:
+				camera.zoom(Float.intBitsToFloat((int) argument));
+				break;
+			default:
+				throw new IllegalArgumentException("unknown command: "
+						+ command);
+			}
 		}
 	}
 
@@ -0,0 +1,186 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Camera.java, a pan and zoom view into a world bigger than the screen
+ * Code demonstrates: - mapping world coordinates onto the drawing image with
+ *                      a single translate/scale on the graphics object
+ *                    - telling the world which part of it is visible, so it
+ *                      can skip drawing (and mostly updating) the rest
+ * The camera may be moved from the EDT (mouse input) while the game is drawn
+ * on another thread, so every method is synchronized. They are all short.
+ * @author  mikelaud
+ */
+public class Camera {
+
+	// Don't let the user zoom in further than this
+	private static final float maxZoom = 8f;
+
+	// Size of the image we draw to, in pixels
+	private int viewWidth;
+	private int viewHeight;
+	// Size of the world we look at
+	private final int worldWidth;
+	private final int worldHeight;
+	// Zooming out further than this would show more than the whole world
+	private float minZoom;
+	// The world point in the middle of the view
+	private float centerX;
+	private float centerY;
+	// Image pixels per world unit
+	private float zoom;
+
+	/**
+	 * Constructor for Camera, starts looking at the middle of the world with
+	 * one image pixel per world unit.
+	 *
+	 * @param viewWidth
+	 *            The width of the image the camera draws to
+	 * @param viewHeight
+	 *            The height of the image the camera draws to
+	 * @param worldWidth
+	 *            The width of the world
+	 * @param worldHeight
+	 *            The height of the world
+	 */
+	public Camera(int viewWidth, int viewHeight, int worldWidth,
+			int worldHeight)
+	{
+		this.worldWidth = worldWidth;
+		this.worldHeight = worldHeight;
+		centerX = worldWidth / 2f;
+		centerY = worldHeight / 2f;
+		zoom = 1f;
+		resize(viewWidth, viewHeight);
+	}
+
+	/**
+	 * Changes the size of the image the camera draws to, keeping the middle
+	 * of the view and the zoom (as far as the new size allows).
+	 *
+	 * @param viewWidth
+	 *            The new width of the image the camera draws to
+	 * @param viewHeight
+	 *            The new height of the image the camera draws to
+	 */
+	public synchronized void resize(int viewWidth, int viewHeight)
+	{
+		this.viewWidth = viewWidth;
+		this.viewHeight = viewHeight;
+		minZoom = Math.min(1f, Math.max((float) viewWidth / worldWidth,
+				(float) viewHeight / worldHeight));
+		zoom = Math.max(minZoom, zoom);
+		clamp();
+	}
+
+	public synchronized int getViewWidth()
+	{
+		return viewWidth;
+	}
+
+	public synchronized int getViewHeight()
+	{
+		return viewHeight;
+	}
+
+	/**
+	 * Moves the view like dragging the picture.
+	 *
+	 * @param dx
+	 *            Horizontal distance, in image pixels
+	 * @param dy
+	 *            Vertical distance, in image pixels
+	 */
+	public synchronized void pan(float dx, float dy)
+	{
+		centerX = centerX - dx / zoom;
+		centerY = centerY - dy / zoom;
+		clamp();
+	}
+
+	/**
+	 * Zooms around the middle of the view.
+	 *
+	 * @param factor
+	 *            Larger than 1 to zoom in, smaller than 1 to zoom out
+	 */
+	public synchronized void zoom(float factor)
+	{
+		zoom = Math.max(minZoom, Math.min(maxZoom, zoom * factor));
+		clamp();
+	}
+
+	public synchronized float getZoom()
+	{
+		return zoom;
+	}
+
+	/**
+	 * Stores the part of the world that is currently visible.
+	 *
+	 * @param viewport
+	 *            Receives the visible rectangle, in world coordinates
+	 */
+	public synchronized void getViewport(Rectangle2D.Float viewport)
+	{
+		float width = viewWidth / zoom;
+		float height = viewHeight / zoom;
+		viewport.setRect(centerX - width / 2, centerY - height / 2, width,
+				height);
+	}
+
+	/**
+	 * Makes g draw world coordinates, and stores the matching viewport (both
+	 * are taken from the same camera position).
+	 *
+	 * @param g
+	 *            The graphics object of the drawing image
+	 * @param viewport
+	 *            Receives the visible rectangle, in world coordinates
+	 */
+	public synchronized void applyTo(Graphics2D g, Rectangle2D.Float viewport)
+	{
+		getViewport(viewport);
+		g.scale(zoom, zoom);
+		g.translate(-viewport.x, -viewport.y);
+	}
+
+	/**
+	 * Sets transform to map world coordinates onto the drawing image, like
+	 * applyTo(Graphics2D, ...) does to a graphics object.
+	 *
+	 * @param transform
+	 *            Receives the world to image transform
+	 * @param viewport
+	 *            Receives the visible rectangle, in world coordinates
+	 */
+	public synchronized void applyTo(AffineTransform transform,
+			Rectangle2D.Float viewport)
+	{
+		getViewport(viewport);
+		transform.setToScale(zoom, zoom);
+		transform.translate(-viewport.x, -viewport.y);
+	}
+
+	/**
+	 * Keeps the view inside the world, or centered on it when the world is
+	 * smaller than the view.
+	 */
+	private void clamp()
+	{
+		centerX = clamp(centerX, viewWidth / zoom / 2, worldWidth);
+		centerY = clamp(centerY, viewHeight / zoom / 2, worldHeight);
+	}
+
+	private static float clamp(float center, float halfView, int worldSize)
+	{
+		if (halfView * 2 >= worldSize)
+		{
+			return worldSize / 2f;
+		}
+		return Math.max(halfView, Math.min(worldSize - halfView, center));
+	}
+}
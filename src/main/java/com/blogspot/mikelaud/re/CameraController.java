@@ -0,0 +1,83 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Component;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+
+/**
+ * Moves a Camera with the mouse: drag to pan, wheel to zoom. Override pan and
+ * zoom to hand the movement to another thread instead of moving the camera
+ * right away.
+ *
+ * @author mikelaud
+ */
+public class CameraController extends MouseAdapter
+{
+	private final Camera camera;
+	// The component the drawing image is stretched over
+	private final Component view;
+	// Where the mouse was on the last press or drag
+	private int lastX;
+	private int lastY;
+
+	public CameraController(Camera camera, Component view)
+	{
+		this.camera = camera;
+		this.view = view;
+	}
+
+	/**
+	 * Starts listening to the mouse on the view.
+	 */
+	public void install()
+	{
+		view.addMouseListener(this);
+		view.addMouseMotionListener(this);
+		view.addMouseWheelListener(this);
+	}
+
+	@Override
+	public void mousePressed(MouseEvent e)
+	{
+		lastX = e.getX();
+		lastY = e.getY();
+	}
+
+	@Override
+	public void mouseDragged(MouseEvent e)
+	{
+		// The image is stretched over the view, so one pixel of mouse
+		// movement isn't one pixel of the image
+		float dx = (e.getX() - lastX) * (float) camera.getViewWidth()
+				/ Math.max(1, view.getWidth());
+		float dy = (e.getY() - lastY) * (float) camera.getViewHeight()
+				/ Math.max(1, view.getHeight());
+		lastX = e.getX();
+		lastY = e.getY();
+		pan(dx, dy);
+	}
+
+	@Override
+	public void mouseWheelMoved(MouseWheelEvent e)
+	{
+		// Rolling away from the user zooms in
+		zoom((float) Math.pow(1.1, -e.getPreciseWheelRotation()));
+	}
+
+	/**
+	 * Called for every drag, in image pixels (see Camera.pan).
+	 */
+	protected void pan(float dx, float dy)
+	{
+		camera.pan(dx, dy);
+	}
+
+	/**
+	 * Called for every wheel step (see Camera.zoom).
+	 */
+	protected void zoom(float factor)
+	{
+		camera.zoom(factor);
+	}
+}
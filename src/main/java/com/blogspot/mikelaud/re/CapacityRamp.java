@@ -0,0 +1,381 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * CapacityRamp.java, finds how many circles a machine can draw within a frame
+ * time budget
+ * Code demonstrates: - growing the number of circles geometrically until a
+ *                      frame gets too slow, then binary searching between the
+ *                      last good and the first bad count
+ *                    - judging a count by the 99th percentile of its frame
+ *                      times, not the average, since stutter is what shows
+ *                    - writing the results as JSON, to compare machines
+ * Each canvas size looks at a world worldScale times larger on each side,
+ * through a camera the size of the canvas, just like the programs set up
+ * their windows, so a count found here can be handed to either program.
+ * Both render paths are run off screen, the way the programs draw a frame:
+ *   ACTIVE  - one thread updates, draws and presents, like
+ *             ActiveCircles.gameLoop()
+ *   PASSIVE - an UpdateScheduler thread updates every millisecond, and frames
+ *             are drawn and presented on another thread, both taking turns
+ *             on a mutex, like PassiveCircles. The wait for the mutex is part
+ *             of the frame time.
+ * Usage: java com.blogspot.mikelaud.re.CapacityRamp [report.json]
+ * Settings (system properties):
+ *   re.capacity.budgetMs - the frame time budget, default 16.6
+ *   re.capacity.sizes    - canvas sizes, default 700x500,1280x720,1920x1080
+ *   re.capacity.frames   - frames measured per count, default 240
+ * @author  mikelaud
+ */
+public class CapacityRamp {
+
+	/**
+	 * The two ways the programs get a frame on the screen.
+	 */
+	public enum RenderPath
+	{
+		ACTIVE, PASSIVE
+	}
+
+	// How much larger the world is than the canvas, on each side, the same
+	// as in ActiveCircles and PassiveCircles
+	private static final int worldScale = 4;
+	// Where the ramp starts
+	private static final int startCircles = 16;
+	// Never go beyond this, whatever the machine
+	private static final int maxCircles = 1 << 20;
+	// Stop the binary search when the bounds are this close (relative)
+	private static final double precision = 0.05;
+	// Frames drawn before measuring a new count
+	private static final int warmUpFrames = 60;
+	// The percentile of the frame times judged against the budget
+	private static final double percentile = 0.99;
+
+	private final long budgetNanos;
+	private final int measuredFrames;
+	// Frame times of the latest measurement
+	private final long[] frameTimes;
+
+	/**
+	 * @param args
+	 *            Optionally the path of the report, default
+	 *            target/capacity-report.json
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		double budgetMillis = Double.parseDouble(System.getProperty(
+				"re.capacity.budgetMs", "16.6"));
+		int frames = Integer.getInteger("re.capacity.frames", 240);
+		String[] sizes = System.getProperty("re.capacity.sizes",
+				"700x500,1280x720,1920x1080").split(",");
+		File report = new File((args.length > 0) ? args[0]
+				: "target/capacity-report.json");
+
+		CapacityRamp ramp = new CapacityRamp(budgetMillis, frames);
+		List<String> results = new ArrayList<String>();
+		for (String size : sizes)
+		{
+			String[] dimensions = size.trim().split("x");
+			int width = Integer.parseInt(dimensions[0]);
+			int height = Integer.parseInt(dimensions[1]);
+			for (RenderPath path : RenderPath.values())
+			{
+				for (boolean antialiasing : new boolean[] { true, false })
+				{
+					int circles = ramp.findCapacity(path, antialiasing, width,
+							height);
+					System.out.println(String.format(Locale.ROOT,
+							"%s, AA %s, %dx%d: %d circles", path,
+							antialiasing ? "on" : "off", width, height,
+							circles));
+					results.add(String.format(Locale.ROOT,
+							"{\"path\": \"%s\", \"antialiasing\": %b, "
+									+ "\"width\": %d, \"height\": %d, "
+									+ "\"maxCircles\": %d}", path,
+							antialiasing, width, height, circles));
+				}
+			}
+		}
+		writeReport(report, budgetMillis, frames, results);
+		System.out.println("report written to " + report);
+	}
+
+	/**
+	 * Constructor for CapacityRamp
+	 *
+	 * @param budgetMillis
+	 *            How long a frame may take, at the 99th percentile
+	 * @param measuredFrames
+	 *            How many frames to measure per circle count
+	 */
+	public CapacityRamp(double budgetMillis, int measuredFrames)
+	{
+		budgetNanos = (long) (budgetMillis * 1000000);
+		this.measuredFrames = measuredFrames;
+		frameTimes = new long[measuredFrames];
+	}
+
+	/**
+	 * Finds the largest number of circles whose frames stay within budget.
+	 * If not even startCircles fit, the search goes on below them.
+	 *
+	 * @return The number of circles, 0 if not even one circle fits
+	 */
+	public int findCapacity(RenderPath path, boolean antialiasing, int width,
+			int height)
+	{
+		Scene scene = new Scene(path, antialiasing, width, height);
+		try
+		{
+			// Grow geometrically until we are over budget
+			int good = 0;
+			int bad = startCircles;
+			while (bad <= maxCircles && scene.fits(bad))
+			{
+				good = bad;
+				bad = bad * 2;
+			}
+			if (bad > maxCircles)
+			{
+				return good;
+			}
+			// Then narrow it down
+			while (bad - good > 1 && bad - good > good * precision)
+			{
+				int middle = good + (bad - good) / 2;
+				if (scene.fits(middle))
+				{
+					good = middle;
+				}
+				else
+				{
+					bad = middle;
+				}
+			}
+			return good;
+		}
+		finally
+		{
+			scene.stop();
+		}
+	}
+
+	private static void writeReport(File report, double budgetMillis,
+			int frames, List<String> results) throws IOException
+	{
+		File directory = report.getAbsoluteFile().getParentFile();
+		if (directory != null)
+		{
+			directory.mkdirs();
+		}
+		Writer out = new OutputStreamWriter(new FileOutputStream(report),
+				"UTF-8");
+		try
+		{
+			out.write("{\n");
+			out.write(String.format(Locale.ROOT,
+					"  \"machine\": {\"os\": \"%s\", \"arch\": \"%s\", "
+							+ "\"processors\": %d, \"java\": \"%s %s\", "
+							+ "\"maxMemory\": %d},\n", escape(System
+							.getProperty("os.name")
+							+ " " + System.getProperty("os.version")),
+					escape(System.getProperty("os.arch")), Runtime
+							.getRuntime().availableProcessors(),
+					escape(System.getProperty("java.vendor")), escape(System
+							.getProperty("java.version")), Runtime
+							.getRuntime().maxMemory()));
+			out.write(String.format(Locale.ROOT,
+					"  \"budgetMs\": %s, \"percentile\": %s, "
+							+ "\"framesPerCount\": %d,\n", budgetMillis,
+					percentile, frames));
+			out.write("  \"results\": [\n");
+			for (int i = 0; i < results.size(); i++)
+			{
+				out.write("    " + results.get(i)
+						+ ((i < results.size() - 1) ? ",\n" : "\n"));
+			}
+			out.write("  ]\n}\n");
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+	private static String escape(String text)
+	{
+		return text.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+
+	/**
+	 * A world of circles drawn off screen along one render path, the camera
+	 * showing a canvas sized part of it. The circles are kept between
+	 * measurements, the ramp only adds or removes the difference.
+	 */
+	class Scene
+	{
+		private final RenderPath path;
+		private final boolean antialiasing;
+		private final CircleWorld world;
+		private final Camera camera;
+		private final Rectangle2D.Float viewport;
+		private final Random random;
+		// What the programs draw to, and what they stretch it onto
+		private final BufferedImage drawing;
+		private final BufferedImage screen;
+		// Only for PASSIVE, updates and frames take turns on the mutex
+		private final Object mutex;
+		private final UpdateScheduler updateScheduler;
+		private long oldTime;
+
+		Scene(RenderPath path, boolean antialiasing, int width, int height)
+		{
+			this.path = path;
+			this.antialiasing = antialiasing;
+			world = new CircleWorld(width * worldScale, height * worldScale);
+			camera = new Camera(width, height, width * worldScale, height
+					* worldScale);
+			viewport = new Rectangle2D.Float();
+			random = new Random(1);
+			drawing = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_RGB);
+			screen = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_RGB);
+			mutex = new Object();
+			oldTime = System.nanoTime();
+			if (path == RenderPath.PASSIVE)
+			{
+				updateScheduler = new UpdateScheduler(new Runnable()
+				{
+					public void run()
+					{
+						synchronized (mutex)
+						{
+							update();
+						}
+					}
+				}, 1, UpdateScheduler.OverrunPolicy.SKIP);
+				updateScheduler.start();
+			}
+			else
+			{
+				updateScheduler = null;
+			}
+		}
+
+		/**
+		 * @return Whether the 99th percentile frame time with this many
+		 *         circles is within budget
+		 */
+		boolean fits(int numberOfCircles)
+		{
+			synchronized (mutex)
+			{
+				resize(numberOfCircles);
+			}
+			for (int i = 0; i < warmUpFrames; i++)
+			{
+				frame();
+			}
+			for (int i = 0; i < measuredFrames; i++)
+			{
+				long start = System.nanoTime();
+				frame();
+				frameTimes[i] = System.nanoTime() - start;
+			}
+			Arrays.sort(frameTimes);
+			long p99 = frameTimes[Math.min(measuredFrames - 1,
+					(int) Math.ceil(measuredFrames * percentile) - 1)];
+			System.out.println(String.format(Locale.ROOT,
+					"  %s, AA %s: %d circles, p99 %.2f ms", path,
+					antialiasing ? "on" : "off", numberOfCircles,
+					p99 / 1e6));
+			return p99 <= budgetNanos;
+		}
+
+		void stop()
+		{
+			if (updateScheduler != null)
+			{
+				updateScheduler.stop();
+			}
+		}
+
+		private void resize(int numberOfCircles)
+		{
+			List<MovingCircle> circles = world.getCircles();
+			while (world.getCircleCount() > numberOfCircles)
+			{
+				world.remove(circles.get(circles.size() - 1));
+			}
+			while (world.getCircleCount() < numberOfCircles)
+			{
+				world.addRandomCircle(random);
+			}
+		}
+
+		private void frame()
+		{
+			if (path == RenderPath.ACTIVE)
+			{
+				update();
+				draw();
+			}
+			else
+			{
+				synchronized (mutex)
+				{
+					draw();
+				}
+			}
+		}
+
+		private void update()
+		{
+			long elapsedTime = System.nanoTime() - oldTime;
+			oldTime = oldTime + elapsedTime;
+			camera.getViewport(viewport);
+			world.update(elapsedTime, viewport);
+		}
+
+		private void draw()
+		{
+			Graphics2D drawingBoard = drawing.createGraphics();
+			if (antialiasing)
+			{
+				drawingBoard.setRenderingHint(
+						RenderingHints.KEY_TEXT_ANTIALIASING,
+						RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+				drawingBoard.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+						RenderingHints.VALUE_ANTIALIAS_ON);
+			}
+			drawingBoard.setColor(Color.LIGHT_GRAY);
+			drawingBoard.fillRect(0, 0, drawing.getWidth(), drawing
+					.getHeight());
+			camera.applyTo(drawingBoard, viewport);
+			world.draw(drawingBoard, viewport);
+			drawingBoard.dispose();
+
+			// Present, like the stretch over the window
+			Graphics2D g = screen.createGraphics();
+			g.drawImage(drawing, 0, 0, screen.getWidth(), screen.getHeight(),
+					null);
+			g.dispose();
+		}
+	}
+}
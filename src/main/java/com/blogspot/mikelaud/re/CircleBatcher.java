@@ -0,0 +1,284 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CircleBatcher.java, draws circles grouped by color and size
+ * Code demonstrates: - keeping Java2D state changes (setColor) down to one
+ *                      per group instead of one per circle
+ *                    - maintaining the groups incrementally, a circle that
+ *                      changes color or size moves between two groups in
+ *                      constant time, nothing is sorted per frame
+ *                    - drawing only the circles queued for this frame (the
+ *                      visible ones, see CircleWorld.draw), still group by
+ *                      group, so the cost follows what is on screen
+ * The groups are kept ordered by color and then by size bucket, so circles
+ * of similar size are drawn right after each other.
+ * @author  mikelaud
+ */
+public class CircleBatcher {
+
+	/**
+	 * Where queued circles are drawn to.
+	 */
+	public interface Canvas
+	{
+		/**
+		 * Draws a circle, the circles of one group come one after another.
+		 *
+		 * @param circle
+		 *            The circle to draw, in world coordinates
+		 * @param color
+		 *            The color of its group
+		 */
+		void draw(MovingCircle circle, Color color);
+	}
+
+	// Circles whose largest side falls in the same multiple of this share a
+	// size bucket
+	private static final int sizeBucketWidth = 16;
+
+	// Look up of the batches by color and size bucket
+	private final Map<Long, Batch> batchesByKey;
+	// The same batches in drawing order (ascending key)
+	private final List<Batch> batches;
+	// How many circles we draw in total
+	private int size;
+
+	public CircleBatcher()
+	{
+		batchesByKey = new HashMap<Long, Batch>();
+		batches = new ArrayList<Batch>();
+		size = 0;
+	}
+
+	/**
+	 * Starts drawing the circle, with its current color and size.
+	 *
+	 * @param circle
+	 *            The circle to add, must not be drawn by another batcher
+	 */
+	public void add(MovingCircle circle)
+	{
+		if (circle.batch != null)
+		{
+			throw new IllegalStateException("circle is already batched");
+		}
+		batchFor(circle).add(circle);
+		size++;
+	}
+
+	/**
+	 * Stops drawing the circle.
+	 *
+	 * @param circle
+	 *            The circle to remove, must be drawn by this batcher
+	 */
+	public void remove(MovingCircle circle)
+	{
+		if (circle.batch == null || circle.batch.getBatcher() != this)
+		{
+			throw new IllegalStateException("circle is not batched here");
+		}
+		removeFromBatch(circle);
+		size--;
+	}
+
+	/**
+	 * Moves the circle to the batch of its (changed) color and size, called by
+	 * the circle itself.
+	 */
+	void rebatch(MovingCircle circle)
+	{
+		Batch target = batchFor(circle);
+		if (target != circle.batch)
+		{
+			removeFromBatch(circle);
+			target.add(circle);
+		}
+	}
+
+	/**
+	 * Queues a circle to be drawn by the next drawQueued, in its group.
+	 *
+	 * @param circle
+	 *            The circle to draw, must be drawn by this batcher
+	 */
+	public void queue(MovingCircle circle)
+	{
+		circle.batch.queue(circle);
+	}
+
+	/**
+	 * Draws the queued circles group by group, and empties the queues.
+	 *
+	 * @param canvas
+	 *            Where to draw them
+	 * @return How many circles were drawn
+	 */
+	public int drawQueued(Canvas canvas)
+	{
+		int drawn = 0;
+		for (int b = 0; b < batches.size(); b++)
+		{
+			Batch batch = batches.get(b);
+			MovingCircle[] queued = batch.queued;
+			for (int i = 0; i < batch.queuedSize; i++)
+			{
+				canvas.draw(queued[i], batch.color);
+				// Don't hold on to circles that may be removed meanwhile
+				queued[i] = null;
+			}
+			drawn = drawn + batch.queuedSize;
+			batch.queuedSize = 0;
+		}
+		return drawn;
+	}
+
+	/**
+	 * @return How many circles are drawn
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return How many groups there are, for the tests
+	 */
+	int getBatchCount()
+	{
+		return batches.size();
+	}
+
+	private void removeFromBatch(MovingCircle circle)
+	{
+		Batch batch = circle.batch;
+		batch.remove(circle);
+		if (batch.size == 0)
+		{
+			// Don't keep drawing (and looking through) empty groups
+			batchesByKey.remove(batch.key);
+			batches.remove(batch);
+		}
+	}
+
+	private Batch batchFor(MovingCircle circle)
+	{
+		int bucket = Math.max(circle.getWidth(), circle.getHeight())
+				/ sizeBucketWidth;
+		// Color first (including alpha), then the bucket, both fit in a long
+		long key = ((long) circle.getColor().getRGB() << 32) | bucket;
+		Batch batch = batchesByKey.get(key);
+		if (batch == null)
+		{
+			batch = new Batch(key, circle.getColor());
+			batchesByKey.put(key, batch);
+			// Keep the drawing order, new groups are rare so a linear
+			// insert is fine
+			int index = 0;
+			while (index < batches.size() && batches.get(index).key < key)
+			{
+				index++;
+			}
+			batches.add(index, batch);
+		}
+		return batch;
+	}
+
+	/**
+	 * A group of circles that are drawn with the same color, packed in an
+	 * array so removing one just moves the last circle into its place.
+	 */
+	class Batch
+	{
+		private final long key;
+		private final Color color;
+		private MovingCircle[] circles;
+		private int size;
+		// The circles to draw this frame
+		private MovingCircle[] queued;
+		private int queuedSize;
+
+		Batch(long key, Color color)
+		{
+			this.key = key;
+			this.color = color;
+			circles = new MovingCircle[8];
+			size = 0;
+			queued = new MovingCircle[8];
+			queuedSize = 0;
+		}
+
+		CircleBatcher getBatcher()
+		{
+			return CircleBatcher.this;
+		}
+
+		void add(MovingCircle circle)
+		{
+			if (size == circles.length)
+			{
+				circles = Arrays.copyOf(circles, size * 2);
+			}
+			circle.batch = this;
+			circle.batchIndex = size;
+			circles[size++] = circle;
+		}
+
+		void remove(MovingCircle circle)
+		{
+			int index = circle.batchIndex;
+			MovingCircle last = circles[--size];
+			circles[index] = last;
+			last.batchIndex = index;
+			circles[size] = null;
+			circle.batch = null;
+		}
+
+		void queue(MovingCircle circle)
+		{
+			if (queuedSize == queued.length)
+			{
+				queued = Arrays.copyOf(queued, queuedSize * 2);
+			}
+			queued[queuedSize++] = circle;
+		}
+	}
+
+	/**
+	 * Draws to a graphics object that maps world coordinates, setting the
+	 * color only when the group changes.
+	 */
+	static final class GraphicsCanvas implements Canvas
+	{
+		private Graphics2D g;
+		private Color color;
+
+		/**
+		 * @param g
+		 *            The graphics to draw to, null when done with it
+		 */
+		void setGraphics(Graphics2D g)
+		{
+			this.g = g;
+			color = null;
+		}
+
+		public void draw(MovingCircle circle, Color color)
+		{
+			if (color != this.color)
+			{
+				g.setColor(color);
+				this.color = color;
+			}
+			circle.draw(g);
+		}
+	}
+}
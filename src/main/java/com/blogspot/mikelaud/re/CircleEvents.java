@@ -0,0 +1,108 @@
+package com.blogspot.mikelaud.re;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * CircleEvents.java, Java Flight Recorder events for the phases of a frame
+ * Code demonstrates: - custom JFR events, so a recording shows which frame a
+ *                      GC pause, a safepoint or a slow fillOval belongs to
+ *                    - events that cost next to nothing while no recording
+ *                      is running: the JIT removes the unused event objects,
+ *                      and the fields are only filled in when the event is
+ *                      actually written
+ * Record with the settings shipped next to the classes, for example:
+ *   java -XX:StartFlightRecording=settings=target/classes/circles.jfc,
+ *        filename=target/circles.jfr -cp target/classes ...ActiveCircles
+ * jdk.jfr is why the build needs Java 11 or later.
+ * Usage: CircleEvents.Update event = new CircleEvents.Update();
+ *        event.begin();
+ *        ... the update ...
+ *        event.commit(frame, circles);
+ * @author  mikelaud
+ */
+public final class CircleEvents {
+
+	private CircleEvents()
+	{
+	}
+
+	/**
+	 * What every event of a frame carries. The duration is JFR's own, from
+	 * begin() to commit().
+	 */
+	@Category("Circles")
+	@StackTrace(false)
+	public static abstract class CircleEvent extends Event
+	{
+		@Label("Frame")
+		@Description("Number of the frame, counted from the start of the program")
+		long frame;
+
+		@Label("Circles")
+		@Description("Number of circles in the world")
+		int circles;
+
+		/**
+		 * Ends the event, and writes it if it is being recorded.
+		 *
+		 * @param frame
+		 *            The number of the frame
+		 * @param circles
+		 *            The number of circles in the world
+		 */
+		public void commit(long frame, int circles)
+		{
+			end();
+			if (shouldCommit())
+			{
+				this.frame = frame;
+				this.circles = circles;
+				commit();
+			}
+		}
+	}
+
+	@Name("com.blogspot.mikelaud.re.Frame")
+	@Label("Frame")
+	@Description("A whole frame, from the start of its update or paint until "
+			+ "it was shown")
+	public static class Frame extends CircleEvent
+	{
+	}
+
+	@Name("com.blogspot.mikelaud.re.Update")
+	@Label("Update")
+	@Description("Moving the circles. PassiveCircles updates on its own "
+			+ "thread, so there the number counts updates instead of frames")
+	public static class Update extends CircleEvent
+	{
+	}
+
+	@Name("com.blogspot.mikelaud.re.Rasterize")
+	@Label("Rasterize")
+	@Description("Drawing the world into the drawing image")
+	public static class Rasterize extends CircleEvent
+	{
+	}
+
+	@Name("com.blogspot.mikelaud.re.Present")
+	@Label("Present")
+	@Description("Stretching the drawing image over the window, with the "
+			+ "Swing components and the stats on top")
+	public static class Present extends CircleEvent
+	{
+	}
+
+	@Name("com.blogspot.mikelaud.re.MutexWait")
+	@Label("Mutex Wait")
+	@Description("Waiting for the mutex shared by drawing and updating. On "
+			+ "the update thread the number counts updates instead of frames")
+	public static class MutexWait extends CircleEvent
+	{
+	}
+}
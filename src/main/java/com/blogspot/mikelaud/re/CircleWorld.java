@@ -0,0 +1,628 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * CircleWorld.java, the circles of a world that may be much bigger than the
+ * screen
+ * Code demonstrates: - splitting the world into a grid of regions
+ *                    - visiting each region again only when its circles
+ *                      could have reached the viewport, so regions far away
+ *                      sleep longer, each circle catching up on the time it
+ *                      slept
+ *                    - drawing only the circles that intersect the viewport,
+ *                      found through the regions that do
+ *                    - an analytic motion mode, where circles only keep their
+ *                      initial conditions and are placed at draw time, at
+ *                      the world time or any other
+ * Each circle remembers the world time it was last updated at, so it always
+ * moves by exactly the time it missed, no matter how often its region was
+ * visited or which region it moved into. A region is due again once the
+ * fastest circle, plus the viewport itself, could have closed the distance
+ * between them since the last visit, so a frame mostly visits the regions
+ * around the viewport and a trickle of far ones, and nothing comes into
+ * view without having been caught up. Each region also remembers when it
+ * was last filed, so drawing another time looks at the regions whose
+ * circles could have moved into view since then.
+ * @author  mikelaud
+ */
+public class CircleWorld {
+
+	/**
+	 * How the circles move forward in time.
+	 */
+	public enum MotionMode
+	{
+		// Every update moves the circles by the elapsed time (see
+		// MovingCircle.update)
+		INTEGRATED,
+		// Circles are placed at their closed form position when drawn (see
+		// MovingCircle.sampleAt), updates only advance the world time and
+		// drawing sorts them into their regions
+		ANALYTIC
+	}
+
+	// Side of a (square) region, in world units. Has to be larger than the
+	// largest circle, so what a region holds covers at most two regions
+	// each way.
+	private static final int regionSize = 256;
+	// Soonest due first
+	private static final Comparator<Region> byDue = new Comparator<Region>()
+	{
+		@Override
+		public int compare(Region a, Region b)
+		{
+			return Double.compare(a.due, b.due);
+		}
+	};
+	// What the programs fill their worlds with: sizes between 30 and 70,
+	// up to half a pixel per millisecond, all dark gray
+	private static final int minRandomSize = 30;
+	private static final int maxRandomSize = 70;
+	private static final float maxRandomSpeed = .5f;
+	private static final Color[] randomPalette = { Color.DARK_GRAY };
+
+	private final int width;
+	private final int height;
+	// The regions, row by row
+	private final Region[] regions;
+	private final int regionColumns;
+	private final int regionRows;
+	// Every circle of the world, in the order they were added
+	private final List<MovingCircle> circles;
+	private final CircleBatcher circleBatcher;
+	// Sum of all elapsed times handed to update, in nanoseconds
+	private long worldTime;
+	// Every region, by the closing at which it has to be visited again
+	private final PriorityQueue<Region> schedule;
+	// The regions of the current visit
+	private final List<Region> visiting;
+	// How far anything could have closed in on the viewport since the
+	// start, in world units: the fastest circle over the world time, plus
+	// how far the viewport's edges moved. A region visited at a distance d
+	// from the viewport is due again when this has grown by d.
+	private double closing;
+	// The world time and viewport the closing was last advanced to
+	private long closedAt;
+	private final Rectangle2D.Double closedViewport;
+	private boolean hasViewport;
+	// How many circles the latest draw actually drew
+	private int drawnCount;
+	// The fastest circle ever added, in pixels per nanosecond, bounds how
+	// far a circle can be from its region at a time other than the one it
+	// was filed at
+	private float maxSpeed;
+	private MotionMode motionMode;
+	// Hands the visible circles to a Graphics2D
+	private final CircleBatcher.GraphicsCanvas graphicsCanvas;
+
+	/**
+	 * Constructor for CircleWorld
+	 *
+	 * @param width
+	 *            The width of the world, circles bounce off its sides
+	 * @param height
+	 *            The height of the world, circles bounce off its sides
+	 */
+	public CircleWorld(int width, int height)
+	{
+		this.width = width;
+		this.height = height;
+		regionColumns = (width + regionSize - 1) / regionSize;
+		regionRows = (height + regionSize - 1) / regionSize;
+		regions = new Region[regionColumns * regionRows];
+		schedule = new PriorityQueue<Region>(Math.max(1, regions.length),
+				byDue);
+		for (int i = 0; i < regions.length; i++)
+		{
+			// Due right away, the first visit takes in everything
+			regions[i] = new Region(i % regionColumns, i / regionColumns);
+			schedule.add(regions[i]);
+		}
+		visiting = new ArrayList<Region>();
+		circles = new ArrayList<MovingCircle>();
+		circleBatcher = new CircleBatcher();
+		worldTime = 0;
+		closing = 0;
+		closedAt = 0;
+		closedViewport = new Rectangle2D.Double();
+		hasViewport = false;
+		drawnCount = 0;
+		maxSpeed = 0;
+		motionMode = MotionMode.INTEGRATED;
+		graphicsCanvas = new CircleBatcher.GraphicsCanvas();
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * @return Every circle of the world (not to be modified)
+	 */
+	public List<MovingCircle> getCircles()
+	{
+		return Collections.unmodifiableList(circles);
+	}
+
+	/**
+	 * @return How many circles there are
+	 */
+	public int getCircleCount()
+	{
+		return circles.size();
+	}
+
+	/**
+	 * @return The sum of all elapsed times handed to update, in nanoseconds
+	 */
+	public long getWorldTime()
+	{
+		return worldTime;
+	}
+
+	public MotionMode getMotionMode()
+	{
+		return motionMode;
+	}
+
+	/**
+	 * Switches how the circles move, they carry on from where they are now.
+	 *
+	 * @param motionMode
+	 *            The new way of moving the circles
+	 */
+	public void setMotionMode(MotionMode motionMode)
+	{
+		if (motionMode == this.motionMode)
+		{
+			return;
+		}
+		if (motionMode == MotionMode.ANALYTIC)
+		{
+			// Bring the sleeping circles up to date, then start the
+			// closed form from there
+			for (MovingCircle circle : circles)
+			{
+				circle.update(worldTime - circle.updatedAt, width, height);
+				circle.rebase(worldTime);
+			}
+		}
+		else
+		{
+			// The regions weren't kept up while moving analytically
+			for (MovingCircle circle : circles)
+			{
+				circle.sampleAt(worldTime, width, height);
+				circle.updatedAt = worldTime;
+				moveToRegion(circle);
+			}
+		}
+		this.motionMode = motionMode;
+	}
+
+	/**
+	 * @return How many circles the latest draw call actually drew
+	 */
+	public int getDrawnCount()
+	{
+		return drawnCount;
+	}
+
+	/**
+	 * Adds a circle, it starts moving from the current world time on.
+	 *
+	 * @param circle
+	 *            The circle to add
+	 */
+	public void add(MovingCircle circle)
+	{
+		circle.updatedAt = worldTime;
+		circle.rebase(worldTime);
+		circles.add(circle);
+		circleBatcher.add(circle);
+		if (circle.getSpeed() > maxSpeed)
+		{
+			// The schedule was made for slower circles: close up at the old
+			// speed, then have every region visited again
+			advanceClosing();
+			maxSpeed = circle.getSpeed();
+			schedule.clear();
+			for (Region region : regions)
+			{
+				region.due = Double.NEGATIVE_INFINITY;
+				schedule.add(region);
+			}
+		}
+		regionOf(circle).add(circle);
+	}
+
+	/**
+	 * Adds a circle somewhere in the world, with a random size, direction and
+	 * speed, the way the programs fill their worlds.
+	 *
+	 * @param random
+	 *            Where the circle comes from
+	 * @return The new circle
+	 */
+	public MovingCircle addRandomCircle(Random random)
+	{
+		return addRandomCircle(random, minRandomSize, maxRandomSize,
+				randomPalette);
+	}
+
+	/**
+	 * Adds a circle somewhere in the world, with a random size, direction,
+	 * speed and color. The same random numbers always give the same circle.
+	 *
+	 * @param random
+	 *            Where the circle comes from
+	 * @param minSize
+	 *            Smallest circle size
+	 * @param maxSize
+	 *            Largest circle size
+	 * @param palette
+	 *            The colors to pick from
+	 * @return The new circle
+	 */
+	public MovingCircle addRandomCircle(Random random, int minSize,
+			int maxSize, Color[] palette)
+	{
+		int circleSize = minSize + random.nextInt(maxSize - minSize + 1);
+		MovingCircle circle = new MovingCircle(random.nextFloat()
+				* (width - circleSize), random.nextFloat()
+				* (height - circleSize), circleSize, circleSize, random
+				.nextBoolean(), random.nextBoolean(), random.nextFloat()
+				* maxRandomSpeed, palette[random.nextInt(palette.length)]);
+		add(circle);
+		return circle;
+	}
+
+	/**
+	 * Removes a circle from the world.
+	 *
+	 * @param circle
+	 *            The circle to remove
+	 */
+	public void remove(MovingCircle circle)
+	{
+		// From the back, usually the circle is one of the latest added
+		circles.remove(circles.lastIndexOf(circle));
+		circleBatcher.remove(circle);
+		circle.region.remove(circle);
+	}
+
+	/**
+	 * Advances the world. The regions whose circles could have reached the
+	 * viewport by now catch up on their time. In ANALYTIC mode this is left
+	 * to the next draw, an update only advances the world time.
+	 *
+	 * @param elapsedTime
+	 *            The time that has elapsed since the last update
+	 * @param viewport
+	 *            The visible part of the world
+	 */
+	public void update(long elapsedTime, Rectangle2D viewport)
+	{
+		worldTime = worldTime + elapsedTime;
+		if (motionMode == MotionMode.INTEGRATED)
+		{
+			visitDueRegions(viewport);
+		}
+	}
+
+	/**
+	 * Draws the circles that intersect the viewport, g is expected to already
+	 * map world coordinates (see Camera). In ANALYTIC mode the circles are
+	 * drawn where they are at the current world time.
+	 *
+	 * @param g
+	 *            Graphics object to draw to
+	 * @param viewport
+	 *            The visible part of the world
+	 */
+	public void draw(Graphics2D g, Rectangle2D viewport)
+	{
+		draw(g, viewport, worldTime);
+	}
+
+	/**
+	 * Draws the circles that intersect the viewport, as they are at the given
+	 * time. Only ANALYTIC mode can draw a time other than the world time, like
+	 * the time between the last two updates for interpolation, or an earlier
+	 * time for a replay.
+	 *
+	 * @param g
+	 *            Graphics object to draw to
+	 * @param viewport
+	 *            The visible part of the world
+	 * @param time
+	 *            The world time to draw the circles at
+	 */
+	public void draw(Graphics2D g, Rectangle2D viewport, long time)
+	{
+		graphicsCanvas.setGraphics(g);
+		draw(graphicsCanvas, viewport, time);
+		graphicsCanvas.setGraphics(null);
+	}
+
+	/**
+	 * Draws the circles that intersect the viewport to a canvas, like a
+	 * TiledFramebuffer.
+	 *
+	 * @param canvas
+	 *            Where to draw, in world coordinates
+	 * @param viewport
+	 *            The visible part of the world
+	 */
+	public void draw(CircleBatcher.Canvas canvas, Rectangle2D viewport)
+	{
+		draw(canvas, viewport, worldTime);
+	}
+
+	/**
+	 * Draws the circles that intersect the viewport to a canvas, as they are
+	 * at the given time (see draw(Graphics2D, Rectangle2D, long)).
+	 *
+	 * @param canvas
+	 *            Where to draw, in world coordinates
+	 * @param viewport
+	 *            The visible part of the world
+	 * @param time
+	 *            The world time to draw the circles at
+	 */
+	public void draw(CircleBatcher.Canvas canvas, Rectangle2D viewport,
+			long time)
+	{
+		if (time != worldTime && motionMode != MotionMode.ANALYTIC)
+		{
+			throw new IllegalStateException(
+					"drawing another time needs ANALYTIC motion");
+		}
+		// The viewport may have moved since the update, and in ANALYTIC mode
+		// the update left the filing to us
+		visitDueRegions(viewport);
+		float left = (float) viewport.getMinX();
+		float top = (float) viewport.getMinY();
+		float right = (float) viewport.getMaxX();
+		float bottom = (float) viewport.getMaxY();
+		// Circles are kept in the region of their top left corner, and are
+		// smaller than a region, so one more region to the left and above
+		// holds the ones reaching into the viewport from there
+		int firstColumn = clamp((int) Math.floor(left / regionSize) - 1,
+				regionColumns);
+		int firstRow = clamp((int) Math.floor(top / regionSize) - 1,
+				regionRows);
+		int lastColumn = clamp((int) Math.floor(right / regionSize),
+				regionColumns);
+		int lastRow = clamp((int) Math.floor(bottom / regionSize),
+				regionRows);
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			for (int column = firstColumn; column <= lastColumn; column++)
+			{
+				queueVisible(regions[row * regionColumns + column], time,
+						viewport);
+			}
+		}
+		if (time != worldTime)
+		{
+			// Away from the time they were filed at, circles may have moved
+			// out of their region by as much as the fastest circle covers in
+			// between. Filing only happens at the world time, so the regions
+			// that far along the schedule are the ones to look at.
+			double due = closing + maxSpeed
+					* (double) Math.abs(time - worldTime);
+			while (!schedule.isEmpty() && schedule.peek().due < due)
+			{
+				visiting.add(schedule.poll());
+			}
+			for (Region region : visiting)
+			{
+				// Circles moved into it since it was filed were filed at
+				// some time up to the world time
+				double reach = maxSpeed
+						* (double) Math.max(Math.abs(time - region.filedAt),
+								Math.abs(time - worldTime));
+				boolean drawn = region.column >= firstColumn
+						&& region.column <= lastColumn
+						&& region.row >= firstRow && region.row <= lastRow;
+				if (!drawn && distance(region, viewport) <= reach)
+				{
+					queueVisible(region, time, viewport);
+				}
+			}
+			// Back in as they were, nothing was filed
+			schedule.addAll(visiting);
+			visiting.clear();
+		}
+		drawnCount = circleBatcher.drawQueued(canvas);
+	}
+
+	private void queueVisible(Region region, long time, Rectangle2D viewport)
+	{
+		float left = (float) viewport.getMinX();
+		float top = (float) viewport.getMinY();
+		float right = (float) viewport.getMaxX();
+		float bottom = (float) viewport.getMaxY();
+		for (int i = 0; i < region.size; i++)
+		{
+			MovingCircle circle = region.circles[i];
+			if (motionMode == MotionMode.ANALYTIC && circle.updatedAt != time)
+			{
+				circle.sampleAt(time, width, height);
+				circle.updatedAt = time;
+			}
+			float x = circle.getX();
+			float y = circle.getY();
+			if (x >= right || y >= bottom || x + circle.getWidth() <= left
+					|| y + circle.getHeight() <= top)
+			{
+				continue;
+			}
+			circleBatcher.queue(circle);
+		}
+	}
+
+	private void visitDueRegions(Rectangle2D viewport)
+	{
+		advanceClosing();
+		if (hasViewport)
+		{
+			// Anything the viewport's edges swept over may be in view now
+			closing += Math.max(Math.max(Math.abs(viewport.getMinX()
+					- closedViewport.getMinX()), Math.abs(viewport.getMaxX()
+					- closedViewport.getMaxX())), Math.max(Math.abs(viewport
+					.getMinY()
+					- closedViewport.getMinY()), Math.abs(viewport.getMaxY()
+					- closedViewport.getMaxY())));
+		}
+		closedViewport.setRect(viewport);
+		hasViewport = true;
+		// Taken out first, so a region is visited only once even if it's
+		// due again right away
+		while (!schedule.isEmpty() && schedule.peek().due < closing)
+		{
+			visiting.add(schedule.poll());
+		}
+		for (Region region : visiting)
+		{
+			updateRegion(region);
+		}
+		// Circles that moved into other regions were caught up, they can
+		// wait as long as their new region does
+		for (Region region : visiting)
+		{
+			region.due = closing + distance(region, viewport);
+			schedule.add(region);
+		}
+		visiting.clear();
+	}
+
+	private void advanceClosing()
+	{
+		closing += maxSpeed * (double) (worldTime - closedAt);
+		closedAt = worldTime;
+	}
+
+	// How far the circles of a region are from the viewport. Circles move
+	// along both axes at their full speed, so the larger gap is what counts.
+	private static double distance(Region region, Rectangle2D viewport)
+	{
+		double left = region.column * regionSize;
+		double top = region.row * regionSize;
+		// What is filed here reaches at most into the next region
+		double dx = Math.max(0, Math.max(left - viewport.getMaxX(), viewport
+				.getMinX()
+				- (left + 2 * regionSize)));
+		double dy = Math.max(0, Math.max(top - viewport.getMaxY(), viewport
+				.getMinY()
+				- (top + 2 * regionSize)));
+		return Math.max(dx, dy);
+	}
+
+	private void updateRegion(Region region)
+	{
+		// Backwards, because circles leaving the region are swapped with the
+		// last one
+		for (int i = region.size - 1; i >= 0; i--)
+		{
+			MovingCircle circle = region.circles[i];
+			if (motionMode == MotionMode.INTEGRATED)
+			{
+				circle.update(worldTime - circle.updatedAt, width, height);
+			}
+			else if (circle.updatedAt != worldTime)
+			{
+				circle.sampleAt(worldTime, width, height);
+			}
+			circle.updatedAt = worldTime;
+			moveToRegion(circle);
+		}
+		region.filedAt = worldTime;
+	}
+
+	private void moveToRegion(MovingCircle circle)
+	{
+		Region current = regionOf(circle);
+		if (current != circle.region)
+		{
+			circle.region.remove(circle);
+			current.add(circle);
+		}
+	}
+
+	private Region regionOf(MovingCircle circle)
+	{
+		int column = clamp((int) circle.getX() / regionSize, regionColumns);
+		int row = clamp((int) circle.getY() / regionSize, regionRows);
+		return regions[row * regionColumns + column];
+	}
+
+	private static int clamp(int index, int count)
+	{
+		return Math.max(0, Math.min(count - 1, index));
+	}
+
+	/**
+	 * The circles whose top left corner is in one cell of the grid, packed
+	 * in an array so removing one just moves the last circle into its place.
+	 */
+	class Region
+	{
+		private final int column;
+		private final int row;
+		private MovingCircle[] circles;
+		private int size;
+		// The closing at which it has to be visited again
+		private double due;
+		// The world time its circles were last filed at
+		private long filedAt;
+
+		Region(int column, int row)
+		{
+			this.column = column;
+			this.row = row;
+			circles = new MovingCircle[8];
+			size = 0;
+			due = Double.NEGATIVE_INFINITY;
+			filedAt = 0;
+		}
+
+		void add(MovingCircle circle)
+		{
+			if (size == circles.length)
+			{
+				circles = Arrays.copyOf(circles, size * 2);
+			}
+			circle.region = this;
+			circle.regionIndex = size;
+			circles[size++] = circle;
+		}
+
+		void remove(MovingCircle circle)
+		{
+			int index = circle.regionIndex;
+			MovingCircle last = circles[--size];
+			circles[index] = last;
+			last.regionIndex = index;
+			circles[size] = null;
+			circle.region = null;
+		}
+	}
+}
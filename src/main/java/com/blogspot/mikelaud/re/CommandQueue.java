@@ -0,0 +1,136 @@
+package com.blogspot.mikelaud.re;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * CommandQueue.java, hands input from any thread over to the game loop
+ * Code demonstrates: - a bounded, lock free queue for many producers (the
+ *                      EDT, timers, ...) and one consumer (the game loop)
+ *                    - commands stored as plain numbers in preallocated
+ *                      arrays, so sending and draining them creates no
+ *                      garbage at all
+ *                    - draining once per frame at a point of the loop's
+ *                      choosing, so the loop never sees state change halfway
+ *                      through an update or a draw
+ * Every slot has a sequence number telling who may use it next. A producer
+ * claims a slot by moving the tail forward with a CAS, fills it in, then
+ * publishes it by setting the sequence. The consumer only reads slots whose
+ * sequence says they are published, and hands them back one lap later.
+ * @author  mikelaud
+ */
+public class CommandQueue {
+
+	/**
+	 * Receives the drained commands, on the consumer's thread.
+	 */
+	public interface Handler
+	{
+		/**
+		 * @param command
+		 *            What to do, the meaning is up to producer and handler
+		 * @param argument
+		 *            The command's argument, 0 when it has none
+		 */
+		void handle(int command, long argument);
+	}
+
+	private final int mask;
+	private final AtomicLongArray sequences;
+	private final int[] commands;
+	private final long[] arguments;
+	// Next position to claim, shared by all producers
+	private final AtomicLong tail;
+	// Next position to read, only used by the consumer
+	private long head;
+
+	/**
+	 * Constructor for CommandQueue
+	 *
+	 * @param capacity
+	 *            How many commands may wait at most, rounded up to a power
+	 *            of two
+	 */
+	public CommandQueue(int capacity)
+	{
+		int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+		mask = size - 1;
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+		{
+			// Slot i is free for the producer claiming position i
+			sequences.set(i, i);
+		}
+		commands = new int[size];
+		arguments = new long[size];
+		tail = new AtomicLong(0);
+		head = 0;
+	}
+
+	/**
+	 * Sends a command, from any thread. Never blocks.
+	 *
+	 * @param command
+	 *            What to do
+	 * @param argument
+	 *            The command's argument
+	 * @return false if the queue is full and the command was dropped
+	 */
+	public boolean offer(int command, long argument)
+	{
+		while (true)
+		{
+			long position = tail.get();
+			int slot = (int) position & mask;
+			long sequence = sequences.get(slot);
+			if (sequence == position)
+			{
+				if (tail.compareAndSet(position, position + 1))
+				{
+					commands[slot] = command;
+					arguments[slot] = argument;
+					// Publish, this orders the two writes above before it
+					sequences.lazySet(slot, position + 1);
+					return true;
+				}
+				// Another producer got this slot, try the next one
+			}
+			else if (sequence < position)
+			{
+				// The slot still holds a command from the previous lap
+				return false;
+			}
+			// else another producer claimed and moved on, reload the tail
+		}
+	}
+
+	/**
+	 * Hands every published command to the handler, in the order they were
+	 * claimed. Only one thread may drain.
+	 *
+	 * @param handler
+	 *            Receives the commands
+	 * @return How many commands were drained
+	 */
+	public int drain(Handler handler)
+	{
+		int drained = 0;
+		while (true)
+		{
+			int slot = (int) head & mask;
+			if (sequences.get(slot) != head + 1)
+			{
+				// Empty, or the next producer hasn't published yet. The ones
+				// after it wait too, to keep the order.
+				return drained;
+			}
+			int command = commands[slot];
+			long argument = arguments[slot];
+			// Free the slot for the producer one lap ahead
+			sequences.lazySet(slot, head + mask + 1);
+			head++;
+			drained++;
+			handler.handle(command, argument);
+		}
+	}
+}
@@ -0,0 +1,153 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * FastStart.java, helpers for getting the first frame up sooner
+ * Code demonstrates: - running the init work that doesn't touch Swing
+ *                      components (building the scene, asking the
+ *                      GraphicsEnvironment for an image) in the background
+ *                    - warming up the drawing code off screen, so class
+ *                      loading and the first JIT compiles of the circle
+ *                      drawing happen before the first real frame
+ * Enabled with -Dre.fastStart=true. Combine it with an AppCDS archive from a
+ * training run (see the appcds profile in pom.xml) to also cut the class
+ * loading of the JDK itself.
+ * @author  mikelaud
+ */
+public final class FastStart {
+
+	// How many off screen frames the warm up draws
+	private static final int warmUpFrames = 20;
+
+	private static final ExecutorService executor = Executors
+			.newCachedThreadPool(new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread thread = new Thread(r, "FastStart");
+					// never keep the application alive on our own
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+
+	private FastStart()
+	{
+	}
+
+	/**
+	 * @return Whether the program was started with -Dre.fastStart=true
+	 */
+	public static boolean isEnabled()
+	{
+		return Boolean.getBoolean("re.fastStart");
+	}
+
+	/**
+	 * Runs an init stage in the background, timed by the StartupProfiler.
+	 *
+	 * @param name
+	 *            What the stage does
+	 * @param task
+	 *            The stage, must not touch Swing components
+	 * @return The result, to be picked up with await
+	 */
+	public static <T> Future<T> submit(final String name,
+			final Callable<T> task)
+	{
+		return executor.submit(new Callable<T>()
+		{
+			public T call() throws Exception
+			{
+				StartupProfiler.Stage stage = StartupProfiler.begin(name);
+				try
+				{
+					return task.call();
+				}
+				finally
+				{
+					stage.end();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Waits for a stage started with submit.
+	 *
+	 * @return The result of the stage
+	 */
+	public static <T> T await(Future<T> future)
+	{
+		boolean interrupted = false;
+		try
+		{
+			while (true)
+			{
+				try
+				{
+					return future.get();
+				}
+				catch (InterruptedException e)
+				{
+					// finish waiting, we can't go on without the result
+					interrupted = true;
+				}
+			}
+		}
+		catch (ExecutionException e)
+		{
+			throw new IllegalStateException("init stage failed", e.getCause());
+		}
+		finally
+		{
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Draws the world a few times into a throw away image, the same way the
+	 * programs draw their frames. Only reads the world, and is meant to run
+	 * before anybody else uses it.
+	 *
+	 * @param world
+	 *            The world to draw
+	 * @param width
+	 *            The width of the programs' drawing image
+	 * @param height
+	 *            The height of the programs' drawing image
+	 */
+	public static void warmUp(CircleWorld world, int width, int height)
+	{
+		BufferedImage scratch = new BufferedImage(width, height,
+				BufferedImage.TYPE_INT_RGB);
+		Camera camera = new Camera(width, height, world.getWidth(), world
+				.getHeight());
+		Rectangle2D.Float viewport = new Rectangle2D.Float();
+		for (int i = 0; i < warmUpFrames; i++)
+		{
+			Graphics2D g = scratch.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING,
+					RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+			camera.applyTo(g, viewport);
+			world.draw(g, viewport);
+			g.drawString("FPS: 0", 0, 20);
+			g.dispose();
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Color;
+import java.awt.Graphics;
+
+/**
+ * A moving circle is a circle that moves around the screen bouncing off
+ * walls. Each circle has its own color and size, the circles are drawn in
+ * groups of the same color by a CircleBatcher.
+ *
+ * @author James Murphy
+ */
+public class MovingCircle
+{
+	private float x;
+	private float y;
+	private int circleWidth;
+	private int circleHeight;
+	private boolean down;
+	private boolean right;
+	private float speed; // pixels per nanosecond
+	private Color color;
+	// Where, and in which directions, the circle was at the world time
+	// startTime, enough to know where it is at any other time (see sampleAt)
+	private float startX;
+	private float startY;
+	private boolean startDown;
+	private boolean startRight;
+	private long startTime;
+	// The batch this circle is drawn with and its position in there, only
+	// maintained by CircleBatcher
+	CircleBatcher.Batch batch;
+	int batchIndex;
+	// The region this circle is kept in, its position in there, and the world
+	// time it was last updated at, only maintained by CircleWorld
+	CircleWorld.Region region;
+	int regionIndex;
+	long updatedAt;
+
+	public MovingCircle(float x, float y, int circleWidth,
+			int circleHeight, boolean down, boolean right, float speed,
+			Color color)
+	{
+		this.x = x;
+		this.y = y;
+		this.circleWidth = circleWidth;
+		this.circleHeight = circleHeight;
+		this.down = down;
+		this.right = right;
+		// convert pixels per millisecond to nano second
+		// a lot easier to originally think about speeds in milliseconds
+		this.speed = speed / 1000000;
+		this.color = color;
+		rebase(0);
+	}
+
+	/**
+	 * Update the circle, which for now is moving the circle, and detecting
+	 * collisions.
+	 *
+	 * @param elapsedTime
+	 *            The time that has elapsed since the last time the circle
+	 *            was updated.
+	 * @param worldWidth
+	 *            The width of the area the circle bounces around in
+	 * @param worldHeight
+	 *            The height of the area the circle bounces around in
+	 */
+	public void update(long elapsedTime, int worldWidth, int worldHeight)
+	{
+		float pixelMovement = elapsedTime * speed;
+		if (down)
+		{
+			y = y + pixelMovement;
+		}
+		else
+		{
+			y = y - pixelMovement;
+		}
+		if (right)
+		{
+			x = x + pixelMovement;
+		}
+		else
+		{
+			x = x - pixelMovement;
+		}
+
+		// test if circle hit a side of the window
+		// mirror the distance we went past the wall back in, which also
+		// moves the circle off the wall to prevent collision sticking, and
+		// keep doing it, a circle that slept for a while can bounce many
+		// times in one update
+		int maxY = worldHeight - circleHeight;
+		while (y < 0 || y > maxY)
+		{
+			if (maxY <= 0)
+			{
+				y = 0;
+				break;
+			}
+			down = !down;
+			y = (y < 0) ? -y : 2 * maxY - y;
+		}
+		int maxX = worldWidth - circleWidth;
+		while (x < 0 || x > maxX)
+		{
+			if (maxX <= 0)
+			{
+				x = 0;
+				break;
+			}
+			right = !right;
+			x = (x < 0) ? -x : 2 * maxX - x;
+		}
+	}
+
+	/**
+	 * Makes the current position and directions the initial conditions
+	 * sampleAt works from.
+	 *
+	 * @param time
+	 *            The world time the current position belongs to
+	 */
+	public void rebase(long time)
+	{
+		startX = x;
+		startY = y;
+		startDown = down;
+		startRight = right;
+		startTime = time;
+	}
+
+	/**
+	 * Moves the circle to where it is at the given time, computed straight
+	 * from the initial conditions instead of step by step. Moving at a
+	 * constant speed and bouncing off the walls, each coordinate is a
+	 * triangle wave over time, so nothing accumulates no matter how long
+	 * the circle runs, and any time (past or future) can be sampled.
+	 *
+	 * @param time
+	 *            The world time to sample at
+	 * @param worldWidth
+	 *            The width of the area the circle bounces around in
+	 * @param worldHeight
+	 *            The height of the area the circle bounces around in
+	 */
+	public void sampleAt(long time, int worldWidth, int worldHeight)
+	{
+		// double, a float would run out of precision after a few minutes
+		double distance = (double) speed * (time - startTime);
+		double foldedY = fold(startY + (startDown ? distance : -distance),
+				worldHeight - circleHeight);
+		double foldedX = fold(startX + (startRight ? distance : -distance),
+				worldWidth - circleWidth);
+		// fold returns the position past the far wall as negative, which
+		// means moving the other way than we started
+		y = (float) Math.abs(foldedY);
+		down = startDown == (foldedY >= 0);
+		x = (float) Math.abs(foldedX);
+		right = startRight == (foldedX >= 0);
+	}
+
+	/**
+	 * Folds an unbounded coordinate into 0..span like a ball bouncing between
+	 * two walls.
+	 *
+	 * @return The folded coordinate, negated when it is on the way back
+	 */
+	private static double fold(double position, int span)
+	{
+		if (span <= 0)
+		{
+			return 0;
+		}
+		double period = 2.0 * span;
+		double phase = position % period;
+		if (phase < 0)
+		{
+			phase = phase + period;
+		}
+		if (phase <= span)
+		{
+			return phase;
+		}
+		// Never zero here, so the sign alone tells the direction
+		return -(period - phase);
+	}
+
+	/**
+	 * Draw the circle, the color is expected to be already set on g (see
+	 * CircleBatcher)
+	 *
+	 * @param g
+	 *            Graphics object to draw to
+	 */
+	public void draw(Graphics g)
+	{
+		g.fillOval((int) x, (int) y, circleWidth, circleHeight);
+	}
+
+	public Color getColor()
+	{
+		return color;
+	}
+
+	/**
+	 * Changes the color, moving the circle to the matching batch if it is
+	 * drawn by a CircleBatcher.
+	 *
+	 * @param color
+	 *            The new color of the circle
+	 */
+	public void setColor(Color color)
+	{
+		this.color = color;
+		if (batch != null)
+		{
+			batch.getBatcher().rebatch(this);
+		}
+	}
+
+	public int getWidth()
+	{
+		return circleWidth;
+	}
+
+	public int getHeight()
+	{
+		return circleHeight;
+	}
+
+	/**
+	 * Changes the size, moving the circle to the matching batch if it is
+	 * drawn by a CircleBatcher.
+	 *
+	 * @param circleWidth
+	 *            The new width of the circle
+	 * @param circleHeight
+	 *            The new height of the circle
+	 */
+	public void setSize(int circleWidth, int circleHeight)
+	{
+		this.circleWidth = circleWidth;
+		this.circleHeight = circleHeight;
+		if (batch != null)
+		{
+			batch.getBatcher().rebatch(this);
+		}
+	}
+
+	public float getX()
+	{
+		return x;
+	}
+
+	public float getY()
+	{
+		return y;
+	}
+
+	/**
+	 * @return The speed, in pixels per nanosecond
+	 */
+	public float getSpeed()
+	{
+		return speed;
+	}
+}
@@ -11,15 +11,22 @@ import java.awt.Insets;
 import java.awt.RenderingHints;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 
 import java.util.Random;
-import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 /**
  * PassiveCircles.java, an example of passive rendering while double buffering
@@ -27,32 +34,56 @@ import javax.swing.JPanel;
  * http://jamesgames.org/resources/double_buffer/double_buffering_and_passive_rendering.html
  * Code demonstrates: - properly set width and height of a JFrame using Insets
  *                    - double buffering via paintComponent() method
- *                    - using a Timer object to periodically update the game
+ *                    - using a drift free UpdateScheduler to periodically
+ *                      update the game
  *                    - usage of a high resolution timer for time based animations
  *                    - easy locational painting such as location 0,0
  *                    - stretching an application's graphics with resizes
+ *                    - per circle colors, drawn in color batches
+ *                    - a pan (drag) and zoom (mouse wheel) camera over a
+ *                      large world, drawing only what it sees
+ *                    - analytic motion, circles placed in closed form at
+ *                      draw time instead of being stepped every update
+ *                    - measuring the time to the first frame, and a fast
+ *                      start mode (-Dre.fastStart=true) shortening it
+ *                    - painting on demand: updates only mark the frame dirty,
+ *                      and a pacer paints it at most once per display
+ *                      refresh (-Dre.refreshRate, default 60 Hz), with one
+ *                      paint in flight and no paint at all when nothing
+ *                      changed
  * @author  James Murphy
  * @version 06/15/2012, previous: 10/13/2011, original: 04/16/10
  */
 public class PassiveCircles extends JFrame implements ActionListener {
 	private static final long serialVersionUID = 1L;
 
+	// The world is this many times wider and taller than the drawing image
+	private static final int worldScale = 4;
+
 	// The slowest update speed is every 20 milliseconds.
-	// Note, in this program, we schedule with a fixed delay, so it will attempt
-	// to run as fast as it can, up to 20 milliseconds, never faster.
+	// Note, in this program, we schedule against absolute deadlines, so the
+	// updates stay exactly 20 milliseconds apart on average, no matter how
+	// late a single one wakes up.
 	private static final int slowUpdateSpeed = 20;
 	private static final int fastUpdateSpeed = 1; // has to be positive
+	// How many frames per second the display can show, we never paint more
+	private static final int refreshRate = Integer.getInteger(
+			"re.refreshRate", 60);
 
 	// Mutex to use to have our program only draw when we're not updating, and
 	// only update when we're not drawing.
 	// (synchronized blocks are reentrant, but this is okay, only the EDT will
-	// paint, and only the thread the timer uses will update)
+	// paint, and only the thread the scheduler uses will update)
 	private static final Object mutex = new Object();
 
 	// Used to randomize circle positions and colors
 	private Random random;
-	// List of our sprites
-	private MovingCircle[] circles;
+	// Holds our sprites, in a world larger than what we see of it
+	private CircleWorld world;
+	// Looks at the part of the world we draw, the user pans and zooms it
+	private Camera camera;
+	// The part of the world seen by the camera, updated every frame
+	private Rectangle2D.Float viewport;
 	// Set true to limit fps (sleep the thread), false to not
 	private boolean limitingFPS;
 	// Set true to sync draws and updates together, false to not
@@ -61,14 +92,17 @@ public class PassiveCircles extends JFrame implements ActionListener {
 	private JButton changeColor;
 	// Button to switch the value of limitingFPS
 	private JButton limitFps;
+	// Button to switch between integrated and analytic circle motion
+	private JButton motionMode;
 	// Button to sync the draws and updates together
 	private JButton syncUpdates;
+	// Button to stop and restart the updates
+	private JButton pause;
+	// Set true to stop updating, nothing changes so nothing is painted
+	private volatile boolean paused;
 	// This is the panel we will draw too, by overriding the paintComponent
 	// method.
 	private JDrawPanel drawPanel;
-	// The color of the current circle, ideally, we would probably want this
-	// part of the Circle class, keeping it here for simplicity.
-	private Color circleColor;
 	// We draw to this image always, then stretch it over the entire frame.
 	// This allows a resize to make the game bigger, as opposed to
 	// just providing a larger area for the sprites to be on.
@@ -86,24 +120,48 @@ public class PassiveCircles extends JFrame implements ActionListener {
 	private long nanoseconds;
 	private int frames;
 	private int updates;
+	// Count every frame (only on the EDT) and every update (only on the
+	// scheduler's thread), for the flight recorder events
+	private long frameNumber;
+	private long updateNumber;
 	// Holds the latest calculated value of frames per second
 	private int fps;
 	// Holds the latest calculated value of updates per second
 	private int ups;
-	// The timer that calls our update method
-	// (specify the java.util one, as there's a Swing Timer as well)
-	private java.util.Timer updateTimer;
-	// Keep a reference to our TimerTask we use to schedule updates, because we
-	// want to change how often it updates (limiting FPS or not)
-	private TimerTask updateTask;
+	// The scheduler that calls our update method, we keep the one task for
+	// the whole run and just change how often it updates (limiting FPS or not)
+	private UpdateScheduler updateScheduler;
+	// Holds the latest average and worst update lateness, in microseconds
+	private long averageLateness;
+	private long maxLateness;
+	// Paints the frame once per display refresh, if it changed
+	private UpdateScheduler pacer;
+	// When something first changed since the last paint was requested, 0
+	// while nothing did
+	private final AtomicLong dirtySince = new AtomicLong();
+	// Set while a requested paint hasn't finished, we never queue a second
+	private final AtomicBoolean painting = new AtomicBoolean();
+	// Updates whose changes were painted together with a later update's
+	private int coalesced;
+	// Refreshes that had a changed frame but no paint, because the last one
+	// was still running or the pacer itself was late
+	private final AtomicInteger dropped = new AtomicInteger();
+	// Holds the latest calculated values of the two above, per second
+	private int coalescedPerSecond;
+	private int droppedPerSecond;
 
 	/**
 	 * @param args
-	 *            Contains nothing for this program.
+	 *            Optionally the number of circles, for example the one
+	 *            CapacityRamp found for this machine.
 	 */
 	public static void main(String[] args)
 	{
-		PassiveCircles passiveCirclesExample = new PassiveCircles(50, 700, 500);
+		// Same density of circles as on a single screen, unless told otherwise
+		int numberOfCircles = (args.length > 0) ? Integer.parseInt(args[0])
+				: 50 * worldScale * worldScale;
+		PassiveCircles passiveCirclesExample = new PassiveCircles(
+				numberOfCircles, 700, 500);
 		passiveCirclesExample.start();
 	}
 
@@ -117,13 +175,53 @@ public class PassiveCircles extends JFrame implements ActionListener {
 	 * @param height
 	 *            The height of the program's inside portion of the frame
 	 */
-	public PassiveCircles(int numberOfCircles, int width, int height)
+	public PassiveCircles(final int numberOfCircles, final int width,
+			final int height)
 	{
 		super();
 
-		setTitle("Passive rendering and double buffering circles using a Timer");
+		// In fast start mode the scene and the drawing image are made on
+		// other threads while we set up Swing here, and the frame is only
+		// shown once everything is ready, so it never paints half done
+		boolean fastStart = FastStart.isEnabled();
+		random = new Random();
+		Future<CircleWorld> scene = null;
+		Future<BufferedImage> image = null;
+		if (fastStart)
+		{
+			scene = FastStart.submit("scene", new Callable<CircleWorld>()
+			{
+				public CircleWorld call()
+				{
+					CircleWorld newWorld = createWorld(numberOfCircles, width,
+							height);
+					FastStart.warmUp(newWorld, width, height);
+					return newWorld;
+				}
+			});
+			image = FastStart.submit("drawing image",
+					new Callable<BufferedImage>()
+					{
+						public BufferedImage call()
+						{
+							return createDrawing(width, height);
+						}
+					});
+		}
+
+		StartupProfiler.Stage stage = StartupProfiler.begin("frame");
+		setTitle("Passive rendering and double buffering circles using a scheduler");
 		setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		setVisible(true);
+		if (fastStart)
+		{
+			// Creating the native window is enough to know the insets, no
+			// need to show it (and then resize it in front of the user)
+			addNotify();
+		}
+		else
+		{
+			setVisible(true);
+		}
 
 		// Correct change width and height of window so that the available
 		// screen space actually corresponds to what is passed, another
@@ -133,26 +231,21 @@ public class PassiveCircles extends JFrame implements ActionListener {
 		int insetWide = insets.left + insets.right;
 		int insetTall = insets.top + insets.bottom;
 		setSize(getWidth() + insetWide, getHeight() + insetTall);
+		stage.end();
 
-		circles = new MovingCircle[numberOfCircles];
 		// Setting up the bouncing circles
-		circleColor = Color.DARK_GRAY;
-		circles = new MovingCircle[numberOfCircles];
-		random = new Random();
-		int circleWidth = 50;
-		int circleHeight = 50;
-		float maxSpeed = .5f;
-		for (int i = 0; i < circles.length; i++)
+		if (!fastStart)
 		{
-			circles[i] = new MovingCircle(random.nextFloat()
-					* (getWidth() - circleWidth), random.nextFloat()
-					* (getHeight() - circleHeight), circleWidth, circleHeight,
-					random.nextBoolean(), random.nextBoolean(), random
-							.nextFloat()
-							* maxSpeed);
+			stage = StartupProfiler.begin("scene");
+			world = createWorld(numberOfCircles, width, height);
+			stage.end();
 		}
+		camera = new Camera(width, height, width * worldScale, height
+				* worldScale);
+		viewport = new Rectangle2D.Float();
 
 		// Setting up the swing components;
+		stage = StartupProfiler.begin("swing components");
 		JPanel programTitlePanel = new JPanel(new FlowLayout());
 		JLabel title = new JLabel("Passively rendering graphics!");
 		programTitlePanel.add(title);
@@ -167,6 +260,12 @@ public class PassiveCircles extends JFrame implements ActionListener {
 		JPanel fpsAndUpdatePanel = new JPanel(new FlowLayout());
 		fpsAndUpdatePanel.add(limitFps);
 		fpsAndUpdatePanel.add(syncUpdates);
+		motionMode = new JButton("Analytic motion");
+		motionMode.addActionListener(this);
+		fpsAndUpdatePanel.add(motionMode);
+		pause = new JButton("Pause");
+		pause.addActionListener(this);
+		fpsAndUpdatePanel.add(pause);
 
 		JPanel holder = new JPanel(new GridLayout(2, 1)); // 2 rows, 1 column
 		holder.add(programTitlePanel);
@@ -178,6 +277,25 @@ public class PassiveCircles extends JFrame implements ActionListener {
 		drawPanel.add(BorderLayout.SOUTH, fpsAndUpdatePanel);
 		add(drawPanel);
 
+		// Drag to pan and use the wheel to zoom, anywhere on the panel. The
+		// view changes even when paused, so ask for a frame.
+		new CameraController(camera, drawPanel)
+		{
+			@Override
+			protected void pan(float dx, float dy)
+			{
+				super.pan(dx, dy);
+				requestFrame();
+			}
+
+			@Override
+			protected void zoom(float factor)
+			{
+				super.zoom(factor);
+				requestFrame();
+			}
+		}.install();
+
 		// Now set the JPanel's opaque, along with other Swing components whose
 		// backgrounds we don't want shown, so we can see the application's
 		// graphics underneath those components!
@@ -188,22 +306,31 @@ public class PassiveCircles extends JFrame implements ActionListener {
 		programTitlePanel.setOpaque(false);
 		fpsAndUpdatePanel.setOpaque(false);
 		holder.setOpaque(false);
+		stage.end();
 
-		// Create an image to draw to, instead of the graphics
-		// object of the JFrame itself, because we can then stretch the image
-		// over the JFrame when the user resizes. This allows the application's
-		// graphics to grow or shrink with the initial size of the frame. Thus,
-		// a larger resizes make's the application's graphics look bigger.
-		// (Note that we are using the width and height from the constructor)
-		drawing = GraphicsEnvironment.getLocalGraphicsEnvironment()
-				.getDefaultScreenDevice().getDefaultConfiguration()
-				.createCompatibleImage(width, height);
+		if (!fastStart)
+		{
+			stage = StartupProfiler.begin("drawing image");
+			drawing = createDrawing(width, height);
+			stage.end();
+		}
 
-		// Creating the timer, to cause an event every 20 milliseconds
-		updateTimer = new java.util.Timer();
-		// Create the update task (Remmeber,
-		// UpdateTask is a inner class we defined below to extend TimerTask!)
-		updateTask = new UpdateTask();
+		// Creating the scheduler, to cause an update every 20 milliseconds
+		// (Remember, UpdateTask is a inner class we defined below!)
+		// Updates are cheap and only move the circles, so dropping the ones
+		// we were too late for is better than bursting to catch up.
+		updateScheduler = new UpdateScheduler(new UpdateTask(),
+				slowUpdateSpeed, UpdateScheduler.OverrunPolicy.SKIP);
+		// And one to paint what the updates changed, a missed refresh is
+		// gone, so it skips too
+		if (refreshRate <= 0 || refreshRate > 1000000000)
+		{
+			throw new IllegalArgumentException(
+					"re.refreshRate has to be between 1 and 1000000000 Hz: "
+							+ refreshRate);
+		}
+		pacer = new UpdateScheduler(new PaceTask(), 1000000000L / refreshRate,
+				TimeUnit.NANOSECONDS, UpdateScheduler.OverrunPolicy.SKIP);
 
 		// Initial the time, fps, and other variables
 		oldTime = System.nanoTime();
@@ -214,47 +341,105 @@ public class PassiveCircles extends JFrame implements ActionListener {
 		updates = 0;
 		fps = 0;
 		ups = 0;
+		averageLateness = 0;
+		maxLateness = 0;
+		coalesced = 0;
+		coalescedPerSecond = 0;
+		droppedPerSecond = 0;
+
+		if (fastStart)
+		{
+			stage = StartupProfiler.begin("waiting for background");
+			world = FastStart.await(scene);
+			drawing = FastStart.await(image);
+			stage.end();
+			setVisible(true);
+		}
+	}
+
+	/**
+	 * Sets up the bouncing circles, in a world worldScale times larger than
+	 * the drawing image. Doesn't touch Swing, so it may run on any thread.
+	 */
+	private CircleWorld createWorld(int numberOfCircles, int width, int height)
+	{
+		CircleWorld newWorld = new CircleWorld(width * worldScale, height
+				* worldScale);
+		for (int i = 0; i < numberOfCircles; i++)
+		{
+			newWorld.addRandomCircle(random);
+		}
+		return newWorld;
 	}
 
 	/**
-	 * "Starts" the application, just sets the timer that will update the
-	 * sprites and call repaint.
+	 * Create an image to draw to, instead of the graphics object of the
+	 * JFrame itself, because we can then stretch the image over the JFrame
+	 * when the user resizes. This allows the application's graphics to grow
+	 * or shrink with the initial size of the frame. Thus, a larger resizes
+	 * make's the application's graphics look bigger. Doesn't touch Swing, so
+	 * it may run on any thread.
+	 */
+	private static BufferedImage createDrawing(int width, int height)
+	{
+		return GraphicsEnvironment.getLocalGraphicsEnvironment()
+				.getDefaultScreenDevice().getDefaultConfiguration()
+				.createCompatibleImage(width, height);
+	}
+
+	/**
+	 * "Starts" the application, just sets the timers that will update the
+	 * sprites and paint them.
 	 */
 	public void start()
 	{
 		// Re-retrieve this value before directly starting the timer for max
 		// accuracy.
 		oldTime = System.nanoTime();
-		// Start the timer in 0ms (right away), updating every
-		// "slowUpdateSpeed" milliseconds
-		updateTimer.schedule(updateTask, 0, slowUpdateSpeed);
+		// Start the scheduler right away, updating every "slowUpdateSpeed"
+		// milliseconds
+		updateScheduler.start();
+		pacer.start();
+	}
+
+	/**
+	 * Marks the frame as changed, the pacer paints it at the next refresh.
+	 * May be called from any thread, as often as you like.
+	 *
+	 * @return false if the frame was already marked, so this change is
+	 *         painted together with an earlier one
+	 */
+	private boolean requestFrame()
+	{
+		return dirtySince.compareAndSet(0, System.nanoTime());
 	}
 
 	public void actionPerformed(ActionEvent e)
 	{
 		if (e.getSource() == changeColor)
 		{
-			circleColor = new Color(random.nextInt(256), random.nextInt(256),
-					random.nextInt(256));
+			recolor(randomPalette());
+			requestFrame();
 		}
 		if (e.getSource() == limitFps)
 		{
+			// This only changes how often we update now, the pacer never
+			// paints faster than the display refresh
 			limitingFPS = !limitingFPS;
 			if (limitingFPS)
 			{
 				limitFps.setText("Unlimit FPS");
-				// Cancel the task, and slow it back up to default speed
-				updateTask.cancel();
-				updateTask = new UpdateTask();
-				updateTimer.scheduleAtFixedRate(updateTask, 0, slowUpdateSpeed);
+				// Slow the task back down to default speed, starting from the
+				// update that is already pending
+				updateScheduler.setUpdatePeriod(slowUpdateSpeed,
+						TimeUnit.MILLISECONDS);
 			}
 			else
 			{
 				limitFps.setText("Limit FPS");
-				// Cancel the task, and make it update as fast as it can
-				updateTask.cancel();
-				updateTask = new UpdateTask();
-				updateTimer.scheduleAtFixedRate(updateTask, 0, fastUpdateSpeed);
+				// Make the task update as fast as it can
+				updateScheduler.setUpdatePeriod(fastUpdateSpeed,
+						TimeUnit.MILLISECONDS);
 			}
 		}
 		if (e.getSource() == syncUpdates)
@@ -269,6 +454,58 @@ public class PassiveCircles extends JFrame implements ActionListener {
 				syncUpdates.setText("Sync Updates");
 			}
 		}
+		if (e.getSource() == motionMode)
+		{
+			synchronized (mutex)
+			{
+				// The button shows the mode we'd switch to
+				if (world.getMotionMode() == CircleWorld.MotionMode.INTEGRATED)
+				{
+					world.setMotionMode(CircleWorld.MotionMode.ANALYTIC);
+					motionMode.setText("Integrated motion");
+				}
+				else
+				{
+					world.setMotionMode(CircleWorld.MotionMode.INTEGRATED);
+					motionMode.setText("Analytic motion");
+				}
+			}
+			requestFrame();
+		}
+		if (e.getSource() == pause)
+		{
+			paused = !paused;
+			pause.setText(paused ? "Resume" : "Pause");
+		}
+	}
+
+	/**
+	 * @return A few random colors to paint the circles with
+	 */
+	private Color[] randomPalette()
+	{
+		Color[] palette = new Color[4];
+		for (int i = 0; i < palette.length; i++)
+		{
+			palette[i] = new Color(random.nextInt(256), random.nextInt(256),
+					random.nextInt(256));
+		}
+		return palette;
+	}
+
+	/**
+	 * Gives every circle one of the palette's colors. The circles move to
+	 * their new color group right away, so drawing doesn't need to sort.
+	 *
+	 * @param palette
+	 *            The colors to pick from
+	 */
+	private void recolor(Color[] palette)
+	{
+		for (MovingCircle circle : world.getCircles())
+		{
+			circle.setColor(palette[random.nextInt(palette.length)]);
+		}
 	}
 
 	class JDrawPanel extends JPanel {
@@ -282,11 +519,20 @@ public class PassiveCircles extends JFrame implements ActionListener {
 		@Override
 		public void paintComponent(Graphics g)
 		{
+			CircleEvents.Frame frameEvent = new CircleEvents.Frame();
+			frameEvent.begin();
+			frameNumber++;
 
+			CircleEvents.MutexWait mutexEvent = new CircleEvents.MutexWait();
+			mutexEvent.begin();
 			synchronized (mutex)
 			{
+				mutexEvent.commit(frameNumber, world.getCircleCount());
 				super.paintComponent(g);
 
+				CircleEvents.Rasterize rasterizeEvent = new CircleEvents.Rasterize();
+				rasterizeEvent.begin();
+
 				// Obtaining the graphics of our drawing image we use,
 				// we draw to this graphics object for the most part
 				Graphics2D drawingBoard = drawing.createGraphics();
@@ -302,22 +548,26 @@ public class PassiveCircles extends JFrame implements ActionListener {
 				// don't see the last frame's drawings! (comment this out and
 				// see what happens, it's fun pressing the change color button
 				// rapidly too!)
-				drawingBoard.setColor(Color.LIGHT_GRAY);
+				// (Anything outside of the world stays gray)
+				drawingBoard.setColor(Color.GRAY);
 				drawingBoard.fillRect(0, 0, drawing.getWidth(), drawing
 						.getHeight());
 
-				// Now draw all the circles, location 0,0 will be top left
-				// corner within the borders of the window
-				drawingBoard.setColor(circleColor);
-				for (MovingCircle circle : circles)
-				{
-					circle.draw(drawingBoard);
-				}
+				// Now draw all the circles, as seen by the camera, location
+				// 0,0 will be the top left corner of the world
+				camera.applyTo(drawingBoard, viewport);
+				drawingBoard.setColor(Color.LIGHT_GRAY);
+				drawingBoard.fillRect(0, 0, world.getWidth(), world
+						.getHeight());
+				world.draw(drawingBoard, viewport);
+				rasterizeEvent.commit(frameNumber, world.getCircleCount());
 
 				// Now draw the drawing board over the panel, and stretch the
 				// imageif needed.
 				// NOTE: In this code example, we are doing this BEFORE we
 				// actively render Swing.
+				CircleEvents.Present presentEvent = new CircleEvents.Present();
+				presentEvent.begin();
 				g.drawImage(drawing, 0, 0, this.getWidth(), this.getHeight(),
 						null);
 
@@ -329,148 +579,137 @@ public class PassiveCircles extends JFrame implements ActionListener {
 				int fontHeight = g.getFontMetrics(this.getFont()).getHeight();
 				g.drawString("FPS: " + fps, 0, fontHeight);
 				g.drawString("UPS: " + ups, 0, fontHeight * 2);
+				g.drawString("LATE: " + averageLateness + "/" + maxLateness
+						+ " us", 0, fontHeight * 3);
+				g.drawString("DRAWN: " + world.getDrawnCount() + "/"
+						+ world.getCircleCount(), 0, fontHeight * 4);
+				g.drawString("COALESCED/DROPPED: " + coalescedPerSecond + "/"
+						+ droppedPerSecond, 0, fontHeight * 5);
 
 				drawingBoard.dispose();
+				presentEvent.commit(frameNumber, world.getCircleCount());
 
-				// Remember, increment frames only here, because Swing collases
-				// repaint calls, so if one hasn't finished
-				// when you call it again, it won't occur, so even though our
-				// update per second speed may be a lot higher, our FPS isn't,
+				// Remember, increment frames only here, we paint at most once
+				// per display refresh (and Swing paints on its own after
+				// resizes), so even though our update per second speed may
+				// be a lot higher, our FPS isn't,
 				frames++;
-
-			}
-
-		}
-	}
-
-	/**
-	 * A moving circle is a circle that moves around the screen bouncing off
-	 * walls
-	 *
-	 * @author James Murphy
-	 */
-	class MovingCircle
-	{
-		private float x;
-		private float y;
-		private int circleWidth;
-		private int circleHeight;
-		private boolean down;
-		private boolean right;
-		private float speed; // pixels per nanosecond
-
-		public MovingCircle(float x, float y, int circleWidth,
-				int circleHeight, boolean down, boolean right, float speed)
-		{
-			this.x = x;
-			this.y = y;
-			this.circleWidth = circleWidth;
-			this.circleHeight = circleHeight;
-			this.down = down;
-			this.right = right;
-			// convert pixels per millisecond to nano second
-			// a lot easier to originally think about speeds in milliseconds
-			this.speed = speed / 1000000;
-		}
-
-		/**
-		 * Update the circle, which for now is moving the circle, and detecting
-		 * collisions.
-		 *
-		 * @param elapsedTime
-		 *            The time that has elapsed since the last time the circle
-		 *            was updated.
-		 */
-		public void update(long elapsedTime)
-		{
-			float pixelMovement = elapsedTime * speed;
-			if (down)
-			{
-				y = y + pixelMovement;
-			}
-			else
-			{
-				y = y - pixelMovement;
-			}
-			if (right)
-			{
-				x = x + pixelMovement;
-			}
-			else
-			{
-				x = x - pixelMovement;
-			}
-
-			// test if circle hit a side of the window
-			// move the circle off the wall also to prevent collision sticking
-			if (y < 0)
-			{
-				down = !down;
-				y = 0;
-			}
-			if (y > drawing.getHeight() - circleHeight)
-			{
-				down = !down;
-				y = drawing.getHeight() - circleHeight;
-			}
-			if (x < 0)
-			{
-				right = !right;
-				x = 0;
-			}
-			if (x > drawing.getWidth() - circleWidth)
-			{
-				right = !right;
-				x = drawing.getWidth() - circleWidth;
+				StartupProfiler.frameShown();
+				frameEvent.commit(frameNumber, world.getCircleCount());
 			}
-		}
 
-		/**
-		 * Draw the circle
-		 *
-		 * @param g
-		 *            Graphics object to draw to
-		 */
-		public void draw(Graphics g)
-		{
-			g.fillOval((int) x, (int) y, circleWidth, circleHeight);
 		}
 	}
 
-	class UpdateTask extends TimerTask
+	class UpdateTask implements Runnable
 	{
-		@Override
 		public void run()
 		{
+			updateNumber++;
+			CircleEvents.MutexWait mutexEvent = new CircleEvents.MutexWait();
+			mutexEvent.begin();
 			synchronized (mutex)
 			{
+				mutexEvent.commit(updateNumber, world.getCircleCount());
+
+				if (paused)
+				{
+					// Nothing moves, so there is nothing to paint either.
+					// Keep the time current, so we don't jump on resume.
+					oldTime = System.nanoTime();
+					return;
+				}
+
 				// Calculating a new fps/ups value every second
 				if (nanoseconds >= 1000000000)
 				{
 					fps = frames;
 					ups = updates;
+					averageLateness = updateScheduler
+							.getAverageLatenessNanos() / 1000;
+					maxLateness = updateScheduler.getMaxLatenessNanos() / 1000;
+					updateScheduler.resetMetrics();
+					coalescedPerSecond = coalesced;
+					droppedPerSecond = dropped.getAndSet(0);
 					nanoseconds = nanoseconds - 1000000000;
 					frames = 0;
 					updates = 0;
+					coalesced = 0;
 				}
 
 				long elapsedTime = System.nanoTime() - oldTime;
 				oldTime = oldTime + elapsedTime;
 				nanoseconds = nanoseconds + elapsedTime;
 
-				// Loop through all circles, update them
-				for (MovingCircle circle : circles)
-				{
-					circle.update(elapsedTime);
-				}
+				// Update the circles, only the part of the world around the
+				// camera is updated every time
+				CircleEvents.Update updateEvent = new CircleEvents.Update();
+				updateEvent.begin();
+				camera.getViewport(viewport);
+				world.update(elapsedTime, viewport);
+				updateEvent.commit(updateNumber, world.getCircleCount());
 
 				// An update occured, increment.
 				updates++;
 
-				// Ask for a repaint
-				repaint();
+				// Ask for a frame, if one is already asked for, it will show
+				// this update too
+				if (!requestFrame())
+				{
+					coalesced++;
+				}
 			}
 
 		}
 	}
+
+	class PaceTask implements Runnable
+	{
+		// The pacer's skipped ticks as of the previous refresh, only the
+		// pacer thread touches them
+		private long skippedTicks = 0;
+
+		public void run()
+		{
+			long now = System.nanoTime();
+			// Refreshes the pacer was too late for, since the previous one
+			long skipped = pacer.getSkippedTicks() - skippedTicks;
+			skippedTicks = skippedTicks + skipped;
+			long since = dirtySince.get();
+			if (since == 0)
+			{
+				// Nothing changed, no paint, and nothing was missed either
+				return;
+			}
+			// Of those, only the ones after the frame changed had something
+			// to show
+			dropped.addAndGet((int) Math.min(skipped, (now - since)
+					/ pacer.getUpdatePeriodNanos()));
+			if (!painting.compareAndSet(false, true))
+			{
+				// The last paint is still running, this refresh is missed.
+				// The frame stays dirty for the next one.
+				dropped.incrementAndGet();
+				return;
+			}
+			dirtySince.set(0);
+			SwingUtilities.invokeLater(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						// Paint right now instead of repaint(), so we know
+						// when it's done (and Swing has nothing to coalesce)
+						drawPanel.paintImmediately(0, 0, drawPanel.getWidth(),
+								drawPanel.getHeight());
+					}
+					finally
+					{
+						painting.set(false);
+					}
+				}
+			});
+		}
+	}
 }
@@ -0,0 +1,139 @@
+package com.blogspot.mikelaud.re;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StartupProfiler.java, measures how long it takes until the first frame is
+ * on the screen
+ * Code demonstrates: - timing the stages of initialization, including the
+ *                      ones running in parallel on other threads
+ *                    - relating them to the start of the JVM, so class
+ *                      loading and JVM start up show up too
+ * Usage: wrap each init stage in begin(...)/end(), and call frameShown()
+ * after every frame that was shown, the first call prints the report.
+ * -Dre.startup.report=false keeps it quiet.
+ * -Dre.exitAfterFrames=N ends the program after N frames, which makes a
+ * training run for an AppCDS archive (see the appcds profile in pom.xml).
+ * @author  mikelaud
+ */
+public final class StartupProfiler {
+
+	// When this class was loaded, close enough to the start of main
+	private static final long loadedAt = System.nanoTime();
+	private static final List<Stage> stages = new ArrayList<Stage>();
+	private static volatile boolean reported = false;
+	// Frames shown so far, only counted for exitAfterFrames
+	private static int framesShown = 0;
+	private static final int exitAfterFrames = Integer.getInteger(
+			"re.exitAfterFrames", 0);
+
+	private StartupProfiler()
+	{
+	}
+
+	/**
+	 * Starts timing an init stage.
+	 *
+	 * @param name
+	 *            What the stage does
+	 * @return The stage, call end() on it when done
+	 */
+	public static Stage begin(String name)
+	{
+		Stage stage = new Stage(name, Thread.currentThread().getName());
+		synchronized (stages)
+		{
+			stages.add(stage);
+		}
+		return stage;
+	}
+
+	/**
+	 * Marks a frame as shown. The first time it prints the time it took
+	 * together with the duration of each stage. Cheap to call on every frame,
+	 * always from the same thread.
+	 */
+	public static void frameShown()
+	{
+		if (exitAfterFrames > 0 && ++framesShown >= exitAfterFrames)
+		{
+			System.exit(0);
+		}
+		if (reported)
+		{
+			return;
+		}
+		report();
+	}
+
+	private static void report()
+	{
+		long now = System.nanoTime();
+		synchronized (stages)
+		{
+			if (reported)
+			{
+				return;
+			}
+			reported = true;
+			if (!Boolean.parseBoolean(System.getProperty("re.startup.report",
+					"true")))
+			{
+				return;
+			}
+			// Only now, the management classes take a while to load, so the
+			// uptime is paired with a nanoTime read right next to it, not with
+			// the frame's
+			RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+			double uptime = runtime.getUptime();
+			long uptimeRead = System.nanoTime();
+			// JVM start, in nanoTime terms
+			double jvmStart = uptimeRead - uptime * 1000000;
+			System.out.println(String.format(
+					"startup: first frame after %.1f ms (main at %.1f ms)",
+					millis(now - jvmStart), millis(loadedAt - jvmStart)));
+			for (Stage stage : stages)
+			{
+				String duration = (stage.end == 0) ? "   running"
+						: String.format("%7.1f ms", millis(stage.end
+								- stage.start));
+				System.out.println(String.format(
+						"startup:   %-24s at %7.1f ms %s  [%s]", stage.name,
+						millis(stage.start - jvmStart), duration,
+						stage.thread));
+			}
+		}
+	}
+
+	private static double millis(double nanoseconds)
+	{
+		return nanoseconds / 1000000;
+	}
+
+	/**
+	 * One timed stage of the initialization.
+	 */
+	public static final class Stage
+	{
+		private final String name;
+		private final String thread;
+		private final long start;
+		private volatile long end;
+
+		private Stage(String name, String thread)
+		{
+			this.name = name;
+			this.thread = thread;
+			start = System.nanoTime();
+			end = 0;
+		}
+
+		public void end()
+		{
+			end = System.nanoTime();
+		}
+	}
+}
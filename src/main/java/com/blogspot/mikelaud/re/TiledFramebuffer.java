@@ -0,0 +1,276 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+
+/**
+ * TiledFramebuffer.java, a drawing image for very large canvases that only
+ * keeps the parts something was drawn on
+ * Code demonstrates: - splitting the canvas into fixed size tiles, allocated
+ *                      the first time a circle lands on them
+ *                    - a missing tile standing for plain background, so a
+ *                      16k x 16k canvas of mostly background costs a few
+ *                      tiles instead of a 1 GiB int array
+ *                    - clearing, presenting and stretching tile by tile,
+ *                      touching only the tiles that hold something
+ *                    - handing tiles that became empty back to a pool, so a
+ *                      moving scene doesn't allocate every frame
+ * A frame is drawn between begin() and end(). begin() only forgets which
+ * tiles were drawn on, a tile is cleared when the frame first draws on it,
+ * and end() takes back the tiles the frame didn't draw on at all.
+ * @author  mikelaud
+ */
+public class TiledFramebuffer implements CircleBatcher.Canvas {
+
+	// Side of a (square) tile, in image pixels
+	private static final int tileSize = 256;
+	// Keep at most this many empty tiles around for reuse
+	private static final int maxPooledTiles = 64;
+
+	private final int width;
+	private final int height;
+	private final int columns;
+	private final int rows;
+	private final Color background;
+	// The tiles, row by row, null where there is only background
+	private final BufferedImage[] tiles;
+	// The graphics of the tiles drawn on this frame, null for the others
+	private final Graphics2D[] graphics;
+	// The color last set on each tile's graphics, to set it only on changes
+	private final Color[] colors;
+	// The indexes of the tiles that hold something, the first tileCount
+	// ones, so ending and presenting a frame never walks the empty canvas
+	private final int[] liveTiles;
+	private final ArrayDeque<BufferedImage> pool;
+	// World to image, taken from the camera at begin()
+	private final AffineTransform transform;
+	private final Rectangle2D.Float viewport;
+	private boolean antialiasing;
+	private int tileCount;
+
+	/**
+	 * Constructor for TiledFramebuffer, starts out all background.
+	 *
+	 * @param width
+	 *            The width of the canvas, in pixels
+	 * @param height
+	 *            The height of the canvas, in pixels
+	 * @param background
+	 *            The color of everything nothing was drawn on
+	 */
+	public TiledFramebuffer(int width, int height, Color background)
+	{
+		this.width = width;
+		this.height = height;
+		this.background = background;
+		columns = (width + tileSize - 1) / tileSize;
+		rows = (height + tileSize - 1) / tileSize;
+		tiles = new BufferedImage[columns * rows];
+		graphics = new Graphics2D[columns * rows];
+		colors = new Color[columns * rows];
+		liveTiles = new int[columns * rows];
+		pool = new ArrayDeque<BufferedImage>();
+		transform = new AffineTransform();
+		viewport = new Rectangle2D.Float();
+		antialiasing = false;
+		tileCount = 0;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	 * @return How many tiles hold something
+	 */
+	public int getTileCount()
+	{
+		return tileCount;
+	}
+
+	/**
+	 * @return How many empty tiles wait to be reused
+	 */
+	public int getPooledTileCount()
+	{
+		return pool.size();
+	}
+
+	public void setAntialiasing(boolean antialiasing)
+	{
+		this.antialiasing = antialiasing;
+	}
+
+	/**
+	 * Starts a frame, as seen by the camera. Everything drawn on the last
+	 * frame is gone, the tiles are only cleared once drawn on again.
+	 *
+	 * @param camera
+	 *            The camera, its view size should be the canvas size
+	 * @return The visible part of the world, to hand to CircleWorld.draw
+	 */
+	public Rectangle2D begin(Camera camera)
+	{
+		camera.applyTo(transform, viewport);
+		return viewport;
+	}
+
+	/**
+	 * Draws a circle in world coordinates, on every tile it covers.
+	 *
+	 * @param circle
+	 *            The circle to draw
+	 * @param color
+	 *            The color to draw it with
+	 */
+	public void draw(MovingCircle circle, Color color)
+	{
+		// The circle's bounds on the canvas, a pixel larger all around for
+		// antialiasing and rounding
+		double scale = transform.getScaleX();
+		double left = ((int) circle.getX()) * scale + transform.getTranslateX();
+		double top = ((int) circle.getY()) * scale + transform.getTranslateY();
+		double right = left + circle.getWidth() * scale;
+		double bottom = top + circle.getHeight() * scale;
+		if (right + 1 < 0 || left - 1 >= width || bottom + 1 < 0
+				|| top - 1 >= height)
+		{
+			return;
+		}
+		int firstColumn = clamp((int) Math.floor((left - 1) / tileSize),
+				columns);
+		int lastColumn = clamp((int) Math.floor((right + 1) / tileSize),
+				columns);
+		int firstRow = clamp((int) Math.floor((top - 1) / tileSize), rows);
+		int lastRow = clamp((int) Math.floor((bottom + 1) / tileSize), rows);
+		for (int row = firstRow; row <= lastRow; row++)
+		{
+			for (int column = firstColumn; column <= lastColumn; column++)
+			{
+				int index = row * columns + column;
+				Graphics2D g = graphics[index];
+				if (g == null)
+				{
+					g = beginTile(index, column, row);
+				}
+				if (colors[index] != color)
+				{
+					g.setColor(color);
+					colors[index] = color;
+				}
+				circle.draw(g);
+			}
+		}
+	}
+
+	/**
+	 * Ends a frame. Tiles the frame didn't draw on are background again, and
+	 * go back to the pool.
+	 */
+	public void end()
+	{
+		// Backwards, because a tile given back is replaced by the last one
+		for (int i = tileCount - 1; i >= 0; i--)
+		{
+			int index = liveTiles[i];
+			if (graphics[index] != null)
+			{
+				graphics[index].dispose();
+				graphics[index] = null;
+				colors[index] = null;
+			}
+			else
+			{
+				if (pool.size() < maxPooledTiles)
+				{
+					pool.push(tiles[index]);
+				}
+				tiles[index] = null;
+				liveTiles[i] = liveTiles[--tileCount];
+			}
+		}
+	}
+
+	/**
+	 * Stretches the canvas over an area of g, the background in one fill and
+	 * then only the tiles that hold something.
+	 *
+	 * @param g
+	 *            The graphics to present to
+	 * @param x
+	 *            Left of the area
+	 * @param y
+	 *            Top of the area
+	 * @param areaWidth
+	 *            Width of the area
+	 * @param areaHeight
+	 *            Height of the area
+	 */
+	public void present(Graphics2D g, int x, int y, int areaWidth,
+			int areaHeight)
+	{
+		g.setColor(background);
+		g.fillRect(x, y, areaWidth, areaHeight);
+		for (int i = 0; i < tileCount; i++)
+		{
+			int index = liveTiles[i];
+			// Edges are computed from the canvas position, so neighbouring
+			// tiles meet exactly, no gaps or overlaps after stretching
+			int sourceLeft = (index % columns) * tileSize;
+			int sourceTop = (index / columns) * tileSize;
+			int sourceRight = Math.min(width, sourceLeft + tileSize);
+			int sourceBottom = Math.min(height, sourceTop + tileSize);
+			int left = x + (int) ((long) sourceLeft * areaWidth / width);
+			int top = y + (int) ((long) sourceTop * areaHeight / height);
+			int right = x + (int) ((long) sourceRight * areaWidth / width);
+			int bottom = y + (int) ((long) sourceBottom * areaHeight / height);
+			g.drawImage(tiles[index], left, top, right, bottom, 0, 0,
+					sourceRight - sourceLeft, sourceBottom - sourceTop, null);
+		}
+	}
+
+	/**
+	 * Gets a tile ready for its first drawing of the frame: allocated (or
+	 * taken from the pool), cleared, and with a graphics object that maps
+	 * world coordinates like the camera, minus the tile's origin.
+	 */
+	private Graphics2D beginTile(int index, int column, int row)
+	{
+		BufferedImage tile = tiles[index];
+		if (tile == null)
+		{
+			tile = pool.isEmpty() ? new BufferedImage(tileSize, tileSize,
+					BufferedImage.TYPE_INT_RGB) : pool.pop();
+			tiles[index] = tile;
+			liveTiles[tileCount++] = index;
+		}
+		Graphics2D g = tile.createGraphics();
+		g.setColor(background);
+		g.fillRect(0, 0, tileSize, tileSize);
+		if (antialiasing)
+		{
+			g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+		}
+		g.translate(-column * tileSize, -row * tileSize);
+		g.transform(transform);
+		graphics[index] = g;
+		return g;
+	}
+
+	private static int clamp(int index, int count)
+	{
+		return Math.max(0, Math.min(count - 1, index));
+	}
+}
@@ -0,0 +1,292 @@
+package com.blogspot.mikelaud.re;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UpdateScheduler.java, a drift free replacement for java.util.Timer
+ * Code demonstrates: - scheduling against absolute deadlines, so the small
+ *                      errors of each wake up never add up over time
+ *                    - changing the update rate while running, without
+ *                      cancelling and re-creating any task
+ *                    - an explicit policy for ticks that run late
+ *                    - measuring how late each tick actually ran
+ * Every tick computes its next deadline from the previous deadline (not from
+ * the time it woke up), then hands itself back to a single threaded
+ * ScheduledExecutorService with the remaining delay.
+ * @author  mikelaud
+ */
+public class UpdateScheduler {
+
+	/**
+	 * What to do when a tick runs so late that one or more following
+	 * deadlines have already passed.
+	 */
+	public enum OverrunPolicy
+	{
+		// Drop the missed deadlines and continue from the next one in the
+		// future, keeping the original phase.
+		SKIP,
+		// Run the missed ticks back to back until we are on time again.
+		CATCH_UP
+	}
+
+	// Upper limit of ticks run back to back with CATCH_UP, so a long stall
+	// (like a debugger pause) doesn't turn into a burst of thousands of ticks.
+	private static final int maxCatchUpTicks = 100;
+
+	// The task we call on every tick
+	private final Runnable task;
+	// The thread that runs our task
+	private final ScheduledExecutorService executor;
+	// Period between two deadlines, in nanoseconds (read on every tick, so
+	// changing it takes effect from the next deadline on)
+	private volatile long periodNanos;
+	private volatile OverrunPolicy overrunPolicy;
+	// The deadline of the tick that is currently scheduled
+	private long deadline;
+	private volatile boolean running;
+	// Just variables to expose how late the ticks are, written by the
+	// scheduler thread only
+	private volatile long ticks;
+	private volatile long skippedTicks;
+	private volatile long lastLateness;
+	private volatile long maxLateness;
+	private volatile long totalLateness;
+
+	/**
+	 * Constructor for UpdateScheduler
+	 *
+	 * @param task
+	 *            The task to run on every tick
+	 * @param periodMillis
+	 *            The initial time between two ticks, in milliseconds
+	 * @param overrunPolicy
+	 *            What to do with deadlines missed by a late tick
+	 */
+	public UpdateScheduler(Runnable task, long periodMillis,
+			OverrunPolicy overrunPolicy)
+	{
+		this(task, periodMillis, TimeUnit.MILLISECONDS, overrunPolicy);
+	}
+
+	/**
+	 * Constructor for UpdateScheduler, for periods that aren't whole
+	 * milliseconds
+	 *
+	 * @param task
+	 *            The task to run on every tick
+	 * @param period
+	 *            The initial time between two ticks, has to be positive
+	 * @param unit
+	 *            The unit of period
+	 * @param overrunPolicy
+	 *            What to do with deadlines missed by a late tick
+	 */
+	public UpdateScheduler(Runnable task, long period, TimeUnit unit,
+			OverrunPolicy overrunPolicy)
+	{
+		this.task = task;
+		this.overrunPolicy = overrunPolicy;
+		setUpdatePeriod(period, unit);
+		executor = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactory()
+				{
+					public Thread newThread(Runnable r)
+					{
+						Thread thread = new Thread(r, "UpdateScheduler");
+						// don't keep the application alive on our own
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * Starts ticking right away.
+	 */
+	public synchronized void start()
+	{
+		if (running)
+		{
+			return;
+		}
+		running = true;
+		deadline = System.nanoTime();
+		executor.execute(new Tick());
+	}
+
+	/**
+	 * Stops ticking for good, the tick that is running is allowed to finish.
+	 */
+	public synchronized void stop()
+	{
+		running = false;
+		executor.shutdown();
+	}
+
+	/**
+	 * Changes how often the task runs. This never reschedules anything, the
+	 * deadline that is already pending is kept and the new period is used
+	 * from there on.
+	 *
+	 * @param period
+	 *            The time between two ticks, has to be positive
+	 * @param unit
+	 *            The unit of period
+	 */
+	public void setUpdatePeriod(long period, TimeUnit unit)
+	{
+		if (period <= 0)
+		{
+			throw new IllegalArgumentException("period has to be positive: "
+					+ period);
+		}
+		periodNanos = unit.toNanos(period);
+	}
+
+	public long getUpdatePeriodNanos()
+	{
+		return periodNanos;
+	}
+
+	public void setOverrunPolicy(OverrunPolicy overrunPolicy)
+	{
+		this.overrunPolicy = overrunPolicy;
+	}
+
+	public OverrunPolicy getOverrunPolicy()
+	{
+		return overrunPolicy;
+	}
+
+	/**
+	 * @return How many ticks ran since the last reset
+	 */
+	public long getTicks()
+	{
+		return ticks;
+	}
+
+	/**
+	 * @return How many deadlines were dropped by the SKIP policy
+	 */
+	public long getSkippedTicks()
+	{
+		return skippedTicks;
+	}
+
+	/**
+	 * @return How late (in nanoseconds) the latest tick started
+	 */
+	public long getLastLatenessNanos()
+	{
+		return lastLateness;
+	}
+
+	/**
+	 * @return The worst lateness (in nanoseconds) since the last reset
+	 */
+	public long getMaxLatenessNanos()
+	{
+		return maxLateness;
+	}
+
+	/**
+	 * @return The average lateness (in nanoseconds) since the last reset
+	 */
+	public long getAverageLatenessNanos()
+	{
+		long count = ticks;
+		return (count == 0) ? 0 : totalLateness / count;
+	}
+
+	/**
+	 * Starts counting lateness from scratch, meant to be called periodically
+	 * (like every second) by whoever displays these values.
+	 */
+	public void resetMetrics()
+	{
+		// Not atomic with the scheduler thread, a tick landing in between
+		// only skews the next window a little.
+		ticks = 0;
+		skippedTicks = 0;
+		lastLateness = 0;
+		maxLateness = 0;
+		totalLateness = 0;
+	}
+
+	/**
+	 * One tick: run the task, then schedule ourselves again for the next
+	 * deadline.
+	 */
+	class Tick implements Runnable
+	{
+		public void run()
+		{
+			if (!running)
+			{
+				return;
+			}
+			long now = System.nanoTime();
+			int catchUps = 0;
+			while (true)
+			{
+				record(now - deadline);
+				try
+				{
+					task.run();
+				}
+				catch (RuntimeException e)
+				{
+					// Like the Timer, one failing tick shouldn't kill the
+					// scheduler thread, but unlike it, keep on ticking.
+					e.printStackTrace();
+				}
+
+				long period = periodNanos;
+				deadline = deadline + period;
+				now = System.nanoTime();
+				if (now - deadline < period)
+				{
+					// On time (or less than a period late), wait for it.
+					break;
+				}
+				if (overrunPolicy == OverrunPolicy.SKIP
+						|| ++catchUps >= maxCatchUpTicks)
+				{
+					// Drop every deadline that already passed and wait for
+					// the first one in the future, which stays in phase with
+					// the original schedule.
+					long missed = (now - deadline) / period + 1;
+					deadline = deadline + missed * period;
+					skippedTicks = skippedTicks + missed;
+					break;
+				}
+				// CATCH_UP: run the next tick immediately
+			}
+			if (running)
+			{
+				executor.schedule(this, deadline - now, TimeUnit.NANOSECONDS);
+			}
+		}
+
+		private void record(long lateness)
+		{
+			if (lateness < 0)
+			{
+				// Woken up a little early, which counts as on time.
+				lateness = 0;
+			}
+			ticks++;
+			lastLateness = lateness;
+			totalLateness = totalLateness + lateness;
+			if (lateness > maxLateness)
+			{
+				maxLateness = lateness;
+			}
+		}
+	}
+}
@@ -0,0 +1,580 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.swing.JComponent;
+
+/**
+ * WorldHost.java, runs many independent simulations on a few threads
+ * Code demonstrates: - a fixed pool of workers instead of one busy thread (or
+ *                      Timer) per scene, so dozens of scenes scale with the
+ *                      cores instead of fighting over them
+ *                    - earliest deadline first: of all the scenes whose
+ *                      frame is due, the one that must be done soonest runs
+ *                      first
+ *                    - drift free frame deadlines, and a frame time budget
+ *                      per scene with overrun statistics. Overrunning it
+ *                      pushes the scene's next deadline back, so one heavy
+ *                      scene can't hold a worker.
+ * Every simulation is in exactly one place at a time: waiting for its next
+ * frame (ordered by release time), ready (ordered by deadline), or running on
+ * one worker. So its frames never overlap, and it needs no locking of its own.
+ * Scenes on screen are hosted through WindowedScene: the worker updates the
+ * world, and Swing paints it whenever it gets to it.
+ * Usage: java com.blogspot.mikelaud.re.WorldHost [scenes] [seconds]
+ * @author  mikelaud
+ */
+public class WorldHost {
+
+	/**
+	 * Something the host runs frame by frame.
+	 */
+	public interface Simulation
+	{
+		/**
+		 * Runs one frame, on one of the host's workers.
+		 *
+		 * @param elapsedTime
+		 *            Nanoseconds since the previous frame started
+		 */
+		void frame(long elapsedTime);
+	}
+
+	private final ReentrantLock lock;
+	// Signalled when a simulation is released earlier than the workers expect
+	private final Condition changed;
+	// Simulations whose next frame is not due yet, soonest first
+	private final PriorityQueue<Entry> waiting;
+	// Simulations whose frame is due, earliest deadline first
+	private final PriorityQueue<Entry> ready;
+	private final Thread[] workers;
+	private boolean running;
+
+	/**
+	 * Runs a few dozen circle worlds, and prints how they kept up.
+	 *
+	 * @param args
+	 *            Optionally the number of scenes (default 48) and how many
+	 *            seconds to run them (default 10)
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		int numberOfScenes = (args.length > 0) ? Integer.parseInt(args[0]) : 48;
+		int seconds = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		WorldHost host = new WorldHost(Runtime.getRuntime()
+				.availableProcessors());
+		Random random = new Random();
+		List<Entry> entries = new ArrayList<Entry>();
+		for (int i = 0; i < numberOfScenes; i++)
+		{
+			// A mix of frame rates, like a box full of different clients
+			long period = (i % 3 == 0) ? 33 : 16;
+			entries.add(host.add(new OffscreenScene(50, 350, 250, random),
+					period, period));
+		}
+		host.start();
+		Thread.sleep(TimeUnit.SECONDS.toMillis(seconds));
+		host.stop();
+
+		long frames = 0;
+		long overruns = 0;
+		long skipped = 0;
+		long maxLateness = 0;
+		for (Entry entry : entries)
+		{
+			frames += entry.getFrames();
+			overruns += entry.getOverruns();
+			skipped += entry.getSkippedFrames();
+			maxLateness = Math.max(maxLateness, entry.getMaxLatenessNanos());
+		}
+		System.out.println(String.format(Locale.ROOT,
+				"%d scenes on %d workers, %d s: %d frames, %d over budget, "
+						+ "%d skipped, max lateness %.2f ms", numberOfScenes,
+				host.workers.length, seconds, frames, overruns, skipped,
+				maxLateness / 1e6));
+	}
+
+	/**
+	 * Constructor for WorldHost
+	 *
+	 * @param numberOfWorkers
+	 *            How many threads run the simulations, usually the number of
+	 *            cores
+	 */
+	public WorldHost(int numberOfWorkers)
+	{
+		lock = new ReentrantLock();
+		changed = lock.newCondition();
+		waiting = new PriorityQueue<Entry>(16, new Comparator<Entry>()
+		{
+			public int compare(Entry a, Entry b)
+			{
+				return Long.signum(a.release - b.release);
+			}
+		});
+		ready = new PriorityQueue<Entry>(16, new Comparator<Entry>()
+		{
+			public int compare(Entry a, Entry b)
+			{
+				return Long.signum(a.deadline - b.deadline);
+			}
+		});
+		workers = new Thread[numberOfWorkers];
+		for (int i = 0; i < numberOfWorkers; i++)
+		{
+			workers[i] = new Thread(new Worker(), "WorldHost-" + i);
+			// never keep the application alive on our own
+			workers[i].setDaemon(true);
+		}
+	}
+
+	/**
+	 * Starts the workers. Can only be called once.
+	 */
+	public void start()
+	{
+		lock.lock();
+		try
+		{
+			running = true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		for (Thread worker : workers)
+		{
+			worker.start();
+		}
+	}
+
+	/**
+	 * Stops the workers, after the frames they are running.
+	 */
+	public void stop() throws InterruptedException
+	{
+		lock.lock();
+		try
+		{
+			running = false;
+			changed.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		for (Thread worker : workers)
+		{
+			worker.join();
+		}
+	}
+
+	/**
+	 * Adds a simulation, its first frame is due right away.
+	 *
+	 * @param simulation
+	 *            What to run
+	 * @param periodMillis
+	 *            How often to run a frame
+	 * @param budgetMillis
+	 *            How long a frame may take before it counts as an overrun
+	 * @return The handle for removing it and reading its statistics
+	 */
+	public Entry add(Simulation simulation, long periodMillis, long budgetMillis)
+	{
+		Entry entry = new Entry(simulation, TimeUnit.MILLISECONDS
+				.toNanos(periodMillis), TimeUnit.MILLISECONDS
+				.toNanos(budgetMillis));
+		lock.lock();
+		try
+		{
+			entry.release = System.nanoTime();
+			entry.deadline = entry.release + entry.period;
+			entry.lastStart = entry.release;
+			waiting.add(entry);
+			changed.signal();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return entry;
+	}
+
+	/**
+	 * Removes a simulation. A frame already running still finishes.
+	 */
+	public void remove(Entry entry)
+	{
+		lock.lock();
+		try
+		{
+			entry.removed = true;
+			waiting.remove(entry);
+			ready.remove(entry);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the due simulation with the earliest deadline, waiting for one if
+	 * needed. Called with the lock held.
+	 *
+	 * @return The simulation, or null when the host stops
+	 */
+	private Entry take() throws InterruptedException
+	{
+		while (running)
+		{
+			long now = System.nanoTime();
+			while (!waiting.isEmpty() && waiting.peek().release - now <= 0)
+			{
+				ready.add(waiting.poll());
+			}
+			if (!ready.isEmpty())
+			{
+				Entry entry = ready.poll();
+				if (!ready.isEmpty() || !waiting.isEmpty())
+				{
+					// There is more work, make sure somebody looks at it
+					changed.signal();
+				}
+				return entry;
+			}
+			if (waiting.isEmpty())
+			{
+				changed.await();
+			}
+			else
+			{
+				changed.awaitNanos(waiting.peek().release - now);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Puts a simulation back after its frame, due one period after the last
+	 * release (not after the frame), so it doesn't drift. A frame over its
+	 * budget pushes the next deadline back by as much as it overran, so a
+	 * scene that keeps overrunning loses out to the ones that keep to their
+	 * budget, instead of always having the nearest deadline. Called with the
+	 * lock held.
+	 */
+	private void requeue(Entry entry, long now, long frameTime)
+	{
+		entry.release += entry.period;
+		if (now - entry.release > entry.period)
+		{
+			// More than a whole frame behind: skip the frames we can't make
+			// up, instead of running them back to back
+			long behind = (now - entry.release) / entry.period;
+			entry.release += behind * entry.period;
+			entry.skippedFrames += behind;
+		}
+		entry.deadline = entry.release + entry.period
+				+ Math.max(0, frameTime - entry.budget);
+		waiting.add(entry);
+		changed.signal();
+	}
+
+	/**
+	 * A simulation run by the host, with its schedule and statistics. The
+	 * statistics may be read from any thread.
+	 */
+	public static final class Entry
+	{
+		private final Simulation simulation;
+		private final long period;
+		private final long budget;
+		// When the next frame may start, and when it must be done
+		private long release;
+		private long deadline;
+		private long lastStart;
+		private boolean removed;
+		// Statistics, written by one worker at a time
+		private volatile long frames;
+		private volatile long overruns;
+		private volatile long skippedFrames;
+		private volatile long totalFrameTime;
+		private volatile long maxFrameTime;
+		private volatile long maxLateness;
+
+		Entry(Simulation simulation, long period, long budget)
+		{
+			this.simulation = simulation;
+			this.period = period;
+			this.budget = budget;
+		}
+
+		public Simulation getSimulation()
+		{
+			return simulation;
+		}
+
+		public long getFrames()
+		{
+			return frames;
+		}
+
+		/**
+		 * @return How many frames took longer than the budget
+		 */
+		public long getOverruns()
+		{
+			return overruns;
+		}
+
+		/**
+		 * @return How many frames were dropped to catch up with the schedule
+		 */
+		public long getSkippedFrames()
+		{
+			return skippedFrames;
+		}
+
+		public long getAverageFrameNanos()
+		{
+			long count = frames;
+			return (count == 0) ? 0 : totalFrameTime / count;
+		}
+
+		public long getMaxFrameNanos()
+		{
+			return maxFrameTime;
+		}
+
+		/**
+		 * @return The longest a frame started after its release
+		 */
+		public long getMaxLatenessNanos()
+		{
+			return maxLateness;
+		}
+	}
+
+	private class Worker implements Runnable
+	{
+		public void run()
+		{
+			while (true)
+			{
+				Entry entry;
+				lock.lock();
+				try
+				{
+					entry = take();
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+				finally
+				{
+					lock.unlock();
+				}
+				if (entry == null)
+				{
+					return;
+				}
+
+				long start = System.nanoTime();
+				long elapsedTime = start - entry.lastStart;
+				entry.lastStart = start;
+				try
+				{
+					entry.simulation.frame(elapsedTime);
+				}
+				catch (RuntimeException e)
+				{
+					// One broken scene must not take the worker down with it
+					Thread thread = Thread.currentThread();
+					thread.getUncaughtExceptionHandler().uncaughtException(
+							thread, e);
+				}
+				long end = System.nanoTime();
+
+				long frameTime = end - start;
+				entry.frames++;
+				entry.totalFrameTime += frameTime;
+				entry.maxFrameTime = Math.max(entry.maxFrameTime, frameTime);
+				entry.maxLateness = Math.max(entry.maxLateness, start
+						- entry.release);
+				if (frameTime > entry.budget)
+				{
+					entry.overruns++;
+				}
+
+				lock.lock();
+				try
+				{
+					if (!entry.removed)
+					{
+						requeue(entry, end, frameTime);
+					}
+				}
+				finally
+				{
+					lock.unlock();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A circle world drawn to an image nobody looks at, like a scene streamed
+	 * or recorded on a server.
+	 */
+	public static class OffscreenScene implements Simulation
+	{
+		private final CircleWorld world;
+		private final Camera camera;
+		private final Rectangle2D.Float viewport;
+		private final BufferedImage drawing;
+
+		/**
+		 * Constructor for OffscreenScene
+		 *
+		 * @param numberOfCircles
+		 *            How many circles bounce around
+		 * @param width
+		 *            The width of the world and the image
+		 * @param height
+		 *            The height of the world and the image
+		 * @param random
+		 *            Where the circles come from
+		 */
+		public OffscreenScene(int numberOfCircles, int width, int height,
+				Random random)
+		{
+			world = new CircleWorld(width, height);
+			for (int i = 0; i < numberOfCircles; i++)
+			{
+				world.addRandomCircle(random);
+			}
+			camera = new Camera(width, height, width, height);
+			viewport = new Rectangle2D.Float();
+			drawing = new BufferedImage(width, height,
+					BufferedImage.TYPE_INT_RGB);
+		}
+
+		public void frame(long elapsedTime)
+		{
+			camera.getViewport(viewport);
+			world.update(elapsedTime, viewport);
+
+			Graphics2D drawingBoard = drawing.createGraphics();
+			drawingBoard.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+			drawingBoard.setColor(Color.LIGHT_GRAY);
+			drawingBoard.fillRect(0, 0, drawing.getWidth(), drawing
+					.getHeight());
+			camera.applyTo(drawingBoard, viewport);
+			world.draw(drawingBoard, viewport);
+			drawingBoard.dispose();
+		}
+
+		public CircleWorld getWorld()
+		{
+			return world;
+		}
+
+		/**
+		 * @return The image frames are drawn to, only safe to read while the
+		 *         scene is not hosted
+		 */
+		public BufferedImage getDrawing()
+		{
+			return drawing;
+		}
+	}
+
+	/**
+	 * A circle world shown in a Swing component, like PassiveCircles. A frame
+	 * only updates the world and asks for a repaint, Swing paints on the
+	 * event dispatch thread and folds repaints it hasn't got to yet into one,
+	 * so a slow screen never holds up the worker. Updates and paints take
+	 * turns on a mutex.
+	 */
+	public static class WindowedScene extends JComponent implements Simulation
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final Object mutex;
+		private final CircleWorld world;
+		private final Camera camera;
+		// One viewport per thread, the worker's and the painter's
+		private final Rectangle2D.Float updateViewport;
+		private final Rectangle2D.Float paintViewport;
+
+		/**
+		 * Constructor for WindowedScene
+		 *
+		 * @param world
+		 *            The world to run and show
+		 * @param camera
+		 *            What part of the world to show, its view size is the
+		 *            preferred size of the component
+		 */
+		public WindowedScene(CircleWorld world, Camera camera)
+		{
+			mutex = new Object();
+			this.world = world;
+			this.camera = camera;
+			updateViewport = new Rectangle2D.Float();
+			paintViewport = new Rectangle2D.Float();
+			setPreferredSize(new Dimension(camera.getViewWidth(), camera
+					.getViewHeight()));
+			setOpaque(true);
+		}
+
+		public void frame(long elapsedTime)
+		{
+			synchronized (mutex)
+			{
+				camera.getViewport(updateViewport);
+				world.update(elapsedTime, updateViewport);
+			}
+			// Safe from any thread
+			repaint();
+		}
+
+		protected void paintComponent(Graphics g)
+		{
+			Graphics2D drawingBoard = (Graphics2D) g.create();
+			drawingBoard.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+			drawingBoard.setColor(Color.LIGHT_GRAY);
+			drawingBoard.fillRect(0, 0, getWidth(), getHeight());
+			synchronized (mutex)
+			{
+				camera.applyTo(drawingBoard, paintViewport);
+				world.draw(drawingBoard, paintViewport);
+			}
+			drawingBoard.dispose();
+		}
+
+		public CircleWorld getWorld()
+		{
+			return world;
+		}
+	}
+}
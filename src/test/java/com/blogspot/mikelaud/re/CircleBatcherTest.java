@@ -0,0 +1,102 @@
+package com.blogspot.mikelaud.re;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CircleBatcherTest
+{
+	private static final Color red = new Color(200, 40, 40);
+	private static final Color blue = new Color(40, 120, 200);
+	private static final Color green = new Color(60, 160, 60);
+
+	@Test
+	public void setsTheColorOncePerGroup()
+	{
+		CircleBatcher batcher = new CircleBatcher();
+		List<MovingCircle> circles = new ArrayList<MovingCircle>();
+		Color[] colors = { red, blue, green };
+		for (int i = 0; i < 30; i++)
+		{
+			// Interleaved, so drawing in adding order would change the color
+			// on every circle
+			circles.add(circle(colors[i % 3], 40));
+		}
+		for (MovingCircle circle : circles)
+		{
+			batcher.add(circle);
+		}
+
+		assertEquals(3, batcher.getBatchCount());
+		assertEquals(3, draw(batcher, circles).getColorChanges());
+	}
+
+	@Test
+	public void regroupsCirclesThatChange()
+	{
+		CircleBatcher batcher = new CircleBatcher();
+		List<MovingCircle> circles = new ArrayList<MovingCircle>();
+		for (int i = 0; i < 20; i++)
+		{
+			MovingCircle circle = circle((i < 10) ? red : blue, 40);
+			circles.add(circle);
+			batcher.add(circle);
+		}
+		assertEquals(2, batcher.getBatchCount());
+
+		// All red ones turn blue, the red group is gone
+		for (int i = 0; i < 10; i++)
+		{
+			circles.get(i).setColor(blue);
+		}
+		assertEquals(1, batcher.getBatchCount());
+		assertEquals(1, draw(batcher, circles).getColorChanges());
+
+		// A much larger size is another group of the same color, drawn
+		// right after the first without another color change
+		circles.get(0).setSize(200, 200);
+		assertEquals(2, batcher.getBatchCount());
+		assertEquals(1, draw(batcher, circles).getColorChanges());
+
+		// One circle in a color of its own
+		circles.get(5).setColor(green);
+		assertEquals(3, batcher.getBatchCount());
+		assertEquals(2, draw(batcher, circles).getColorChanges());
+
+		batcher.remove(circles.get(5));
+		assertEquals(2, batcher.getBatchCount());
+		assertEquals(19, batcher.size());
+	}
+
+	/**
+	 * Queues all circles still in the batcher and draws them to a recording
+	 * graphics object.
+	 */
+	private static RecordingGraphics draw(CircleBatcher batcher,
+			List<MovingCircle> circles)
+	{
+		RecordingGraphics g = new RecordingGraphics(Scenes.newDrawing(300,
+				300).createGraphics());
+		for (MovingCircle circle : circles)
+		{
+			if (circle.batch != null)
+			{
+				batcher.queue(circle);
+			}
+		}
+		CircleBatcher.GraphicsCanvas canvas = new CircleBatcher.GraphicsCanvas();
+		canvas.setGraphics(g);
+		assertEquals(batcher.size(), batcher.drawQueued(canvas));
+		g.dispose();
+		return g;
+	}
+
+	private static MovingCircle circle(Color color, int size)
+	{
+		return new MovingCircle(10, 10, size, size, false, false, 0, color);
+	}
+}
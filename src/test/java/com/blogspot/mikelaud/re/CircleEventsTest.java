@@ -0,0 +1,71 @@
+package com.blogspot.mikelaud.re;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.text.ParseException;
+import java.util.List;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.junit.Test;
+
+public class CircleEventsTest
+{
+	@Test
+	public void recordsWithTheShippedSettings() throws IOException,
+			ParseException
+	{
+		Reader settings = new InputStreamReader(getClass().getResourceAsStream(
+				"/circles.jfc"), "UTF-8");
+		Configuration configuration;
+		try
+		{
+			configuration = Configuration.create(settings);
+		}
+		finally
+		{
+			settings.close();
+		}
+		assertEquals("true", configuration.getSettings().get(
+				"com.blogspot.mikelaud.re.Frame#enabled"));
+
+		File file = File.createTempFile("circles", ".jfr");
+		file.deleteOnExit();
+		Recording recording = new Recording(configuration);
+		try
+		{
+			recording.start();
+			CircleEvents.Rasterize event = new CircleEvents.Rasterize();
+			event.begin();
+			event.commit(7, 42);
+			recording.stop();
+			recording.dump(file.toPath());
+		}
+		finally
+		{
+			recording.close();
+		}
+
+		List<RecordedEvent> events = RecordingFile.readAllEvents(file.toPath());
+		RecordedEvent rasterize = null;
+		for (RecordedEvent recorded : events)
+		{
+			if (recorded.getEventType().getName().equals(
+					"com.blogspot.mikelaud.re.Rasterize"))
+			{
+				rasterize = recorded;
+			}
+		}
+		assertTrue(rasterize != null);
+		assertEquals(7, rasterize.getLong("frame"));
+		assertEquals(42, rasterize.getInt("circles"));
+	}
+}
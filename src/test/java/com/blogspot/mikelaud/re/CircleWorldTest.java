@@ -0,0 +1,184 @@
+package com.blogspot.mikelaud.re;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class CircleWorldTest
+{
+	@Test
+	public void drawsOnlyWhatIsNearTheViewport()
+	{
+		CircleWorld world = new CircleWorld(4096, 4096);
+		MovingCircle near = moving(100, 100);
+		// More than 3000 pixels away, 8 pixels a step can't get it into
+		// view for hundreds of steps
+		MovingCircle far = moving(4000, 4000);
+		world.add(near);
+		world.add(far);
+		world.setMotionMode(CircleWorld.MotionMode.ANALYTIC);
+
+		Rectangle2D.Float viewport = new Rectangle2D.Float(0, 0, 700, 500);
+		// The first frame takes in every region
+		world.update(Scenes.step, viewport);
+		draw(world, viewport);
+		float nearX = near.getX();
+		float farX = far.getX();
+		for (int i = 0; i < 50; i++)
+		{
+			world.update(Scenes.step, viewport);
+		}
+		// Analytic updates only advance the time
+		assertEquals(nearX, near.getX(), 0);
+		draw(world, viewport);
+
+		assertEquals(1, world.getDrawnCount());
+		// The visible circle was placed at the new time, the far one wasn't
+		// looked at again
+		assertEquals(100 + 51 * Scenes.step * .5f / 1000000, near.getX(),
+				.001f);
+		assertEquals(farX, far.getX(), 0);
+	}
+
+	@Test
+	public void wakesSleepingCirclesBeforeTheyComeIntoView()
+	{
+		for (CircleWorld.MotionMode motionMode : CircleWorld.MotionMode
+				.values())
+		{
+			CircleWorld world = new CircleWorld(16384, 16384);
+			// 1000 pixels left of the viewport, heading into it
+			MovingCircle circle = new MovingCircle(14684, 15000, 40, 40,
+					true, true, .5f, Color.DARK_GRAY);
+			world.add(circle);
+			world.setMotionMode(motionMode);
+
+			Rectangle2D.Float viewport = new Rectangle2D.Float(15684, 15800,
+					700, 500);
+			for (int i = 0; i < 137; i++)
+			{
+				world.update(Scenes.step, viewport);
+				draw(world, viewport);
+			}
+
+			assertEquals(motionMode.name(), 1, world.getDrawnCount());
+			assertEquals(motionMode.name(), 14684 + 137 * 8, circle.getX(),
+					.01f);
+			assertEquals(motionMode.name(), 15000 + 137 * 8, circle.getY(),
+					.01f);
+		}
+	}
+
+	@Test
+	public void drawsAnEarlierTimeLikeAnIntegratedRunStoppedThere()
+	{
+		// Bigger than the view, so circles have crossed regions in between
+		Camera camera = new Camera(700, 500, 1400, 1000);
+		CircleWorld analytic = new CircleWorld(1400, 1000);
+		Scenes.populate(analytic, 400, 5L, Scenes.palette(), 30, 70);
+		analytic.setMotionMode(CircleWorld.MotionMode.ANALYTIC);
+		Scenes.run(analytic, camera, 300);
+		CircleWorld integrated = new CircleWorld(1400, 1000);
+		Scenes.populate(integrated, 400, 5L, Scenes.palette(), 30, 70);
+		Scenes.run(integrated, camera, 200);
+
+		BufferedImage expected = Scenes.newDrawing(700, 500);
+		Scenes.draw(integrated, camera, expected, false);
+		BufferedImage now = Scenes.newDrawing(700, 500);
+		Scenes.draw(analytic, camera, now, false);
+		BufferedImage actual = Scenes.newDrawing(700, 500);
+		Scenes.draw(analytic, camera, actual, false, 200 * Scenes.step);
+
+		assertTrue(countDifferentPixels(expected, now) > 0);
+		assertEquals(0, countDifferentPixels(expected, actual));
+		assertEquals(integrated.getDrawnCount(), analytic.getDrawnCount());
+	}
+
+	@Test
+	public void drawsOtherTimesWithRegionsAsleep()
+	{
+		// Most regions are far from the view and were filed long before the
+		// time drawn, or long after it. Compared with a world stopped at
+		// that time, the closed form gives the very same positions there.
+		Camera camera = new Camera(700, 500, 5600, 4000);
+		CircleWorld later = analyticRun(camera, 300);
+		CircleWorld stopped = analyticRun(camera, 200);
+
+		BufferedImage expected = Scenes.newDrawing(700, 500);
+		Scenes.draw(stopped, camera, expected, false);
+		BufferedImage now = Scenes.newDrawing(700, 500);
+		Scenes.draw(later, camera, now, false);
+		BufferedImage actual = Scenes.newDrawing(700, 500);
+		Scenes.draw(later, camera, actual, false, 200 * Scenes.step);
+		assertTrue(countDifferentPixels(expected, now) > 0);
+		assertEquals(0, countDifferentPixels(expected, actual));
+		assertEquals(stopped.getDrawnCount(), later.getDrawnCount());
+
+		// And the other way round, ahead of the world time
+		BufferedImage ahead = Scenes.newDrawing(700, 500);
+		Scenes.draw(stopped, camera, ahead, false, 300 * Scenes.step);
+		assertEquals(0, countDifferentPixels(now, ahead));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void drawsOtherTimesOnlyInAnalyticMode()
+	{
+		CircleWorld world = new CircleWorld(700, 500);
+		Camera camera = new Camera(700, 500, 700, 500);
+		Scenes.run(world, camera, 10);
+		Scenes.draw(world, camera, Scenes.newDrawing(700, 500), false,
+				5 * Scenes.step);
+	}
+
+	// Draws every update, like the programs do
+	private static CircleWorld analyticRun(Camera camera, int updates)
+	{
+		CircleWorld world = new CircleWorld(5600, 4000);
+		Scenes.populate(world, 6400, 5L, Scenes.palette(), 30, 70);
+		world.setMotionMode(CircleWorld.MotionMode.ANALYTIC);
+		Rectangle2D.Float viewport = new Rectangle2D.Float();
+		for (int i = 0; i < updates; i++)
+		{
+			camera.getViewport(viewport);
+			world.update(Scenes.step, viewport);
+			draw(world, viewport);
+		}
+		return world;
+	}
+
+	private static void draw(CircleWorld world, Rectangle2D viewport)
+	{
+		BufferedImage drawing = Scenes.newDrawing(700, 500);
+		Graphics2D g = drawing.createGraphics();
+		world.draw(g, viewport);
+		g.dispose();
+	}
+
+	private static int countDifferentPixels(BufferedImage a, BufferedImage b)
+	{
+		int different = 0;
+		for (int y = 0; y < a.getHeight(); y++)
+		{
+			for (int x = 0; x < a.getWidth(); x++)
+			{
+				if (a.getRGB(x, y) != b.getRGB(x, y))
+				{
+					different++;
+				}
+			}
+		}
+		return different;
+	}
+
+	private static MovingCircle moving(float x, float y)
+	{
+		return new MovingCircle(x, y, 40, 40, false, true, .5f,
+				Color.DARK_GRAY);
+	}
+}
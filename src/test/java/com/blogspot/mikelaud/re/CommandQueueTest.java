@@ -0,0 +1,116 @@
+package com.blogspot.mikelaud.re;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+public class CommandQueueTest
+{
+	@Test
+	public void drainsInOrder()
+	{
+		CommandQueue queue = new CommandQueue(4);
+		assertTrue(queue.offer(1, 10));
+		assertTrue(queue.offer(2, 20));
+		final StringBuilder drained = new StringBuilder();
+		assertEquals(2, queue.drain(new CommandQueue.Handler()
+		{
+			public void handle(int command, long argument)
+			{
+				drained.append(command).append(':').append(argument)
+						.append(' ');
+			}
+		}));
+		assertEquals("1:10 2:20 ", drained.toString());
+	}
+
+	@Test
+	public void rejectsWhenFullAndReusesSlots()
+	{
+		CommandQueue queue = new CommandQueue(4);
+		CommandQueue.Handler ignore = new CommandQueue.Handler()
+		{
+			public void handle(int command, long argument)
+			{
+			}
+		};
+		for (int lap = 0; lap < 3; lap++)
+		{
+			for (int i = 0; i < 4; i++)
+			{
+				assertTrue(queue.offer(i, i));
+			}
+			assertFalse(queue.offer(4, 4));
+			assertEquals(4, queue.drain(ignore));
+			assertEquals(0, queue.drain(ignore));
+		}
+	}
+
+	@Test
+	public void keepsEveryCommandOfConcurrentProducers()
+			throws InterruptedException
+	{
+		final int producers = 4;
+		final int commandsEach = 20000;
+		final CommandQueue queue = new CommandQueue(256);
+		final CountDownLatch start = new CountDownLatch(1);
+		Thread[] threads = new Thread[producers];
+		for (int p = 0; p < producers; p++)
+		{
+			final int producer = p;
+			threads[p] = new Thread(new Runnable()
+			{
+				public void run()
+				{
+					try
+					{
+						start.await();
+					}
+					catch (InterruptedException e)
+					{
+						return;
+					}
+					for (int i = 0; i < commandsEach; i++)
+					{
+						while (!queue.offer(producer, i))
+						{
+							Thread.yield();
+						}
+					}
+				}
+			});
+			threads[p].start();
+		}
+
+		// Each producer's commands have to arrive complete and in order
+		final long[] next = new long[producers];
+		final boolean[] ordered = { true };
+		CommandQueue.Handler handler = new CommandQueue.Handler()
+		{
+			public void handle(int command, long argument)
+			{
+				if (argument != next[command])
+				{
+					ordered[0] = false;
+				}
+				next[command] = argument + 1;
+			}
+		};
+		start.countDown();
+		long drained = 0;
+		while (drained < (long) producers * commandsEach)
+		{
+			drained = drained + queue.drain(handler);
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		assertTrue(ordered[0]);
+		assertEquals(0, queue.drain(handler));
+	}
+}
@@ -0,0 +1,175 @@
+package com.blogspot.mikelaud.re;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Renders fixed seeded scenes and compares them against the golden images in
+ * src/test/resources/golden.
+ *
+ * Antialiased edges come out slightly different between Java2D pipelines and
+ * JDK versions, so a pixel only counts as different when a channel is off by
+ * more than channelTolerance, and a small share of such pixels is allowed.
+ *
+ * After an intended change of the rendering, regenerate the images with
+ * mvn test -Dtest=GoldenImageTest -Dgolden.update=true
+ * and check them in.
+ */
+public class GoldenImageTest
+{
+	private static final String goldenDirectory = "src/test/resources/golden";
+	private static final String failureDirectory = "target/golden-failures";
+	private static final int channelTolerance = 32;
+	private static final double maxDifferentPixels = 0.005;
+
+	@Test
+	public void uniformCircles() throws IOException
+	{
+		// The original look, one color and one size
+		CircleWorld world = new CircleWorld(700, 500);
+		Camera camera = new Camera(700, 500, 700, 500);
+		Scenes.populate(world, 50, 1L, new Color[] { Color.DARK_GRAY }, 50,
+				50);
+		Scenes.run(world, camera, 300);
+		assertGolden("uniform-circles", render(world, camera, 700, 500, true));
+	}
+
+	@Test
+	public void paletteAndSizes() throws IOException
+	{
+		CircleWorld world = new CircleWorld(700, 500);
+		Camera camera = new Camera(700, 500, 700, 500);
+		Scenes.populate(world, 200, 2L, Scenes.palette(), 30, 70);
+		Scenes.run(world, camera, 300);
+		assertGolden("palette-and-sizes", render(world, camera, 700, 500,
+				true));
+	}
+
+	@Test
+	public void paletteAndSizesAliased() throws IOException
+	{
+		CircleWorld world = new CircleWorld(700, 500);
+		Camera camera = new Camera(700, 500, 700, 500);
+		Scenes.populate(world, 200, 2L, Scenes.palette(), 30, 70);
+		Scenes.run(world, camera, 300);
+		assertGolden("palette-and-sizes-aliased", render(world, camera, 700,
+				500, false));
+	}
+
+	@Test
+	public void pannedAndZoomedCamera() throws IOException
+	{
+		// Exercises culling and the sleeping regions catching up
+		CircleWorld world = new CircleWorld(2800, 2000);
+		Camera camera = new Camera(700, 500, 2800, 2000);
+		Scenes.populate(world, 800, 3L, Scenes.palette(), 30, 70);
+		Scenes.run(world, camera, 200);
+		camera.pan(900, -300);
+		camera.zoom(2f);
+		Scenes.run(world, camera, 200);
+		assertGolden("panned-and-zoomed", render(world, camera, 700, 500,
+				true));
+	}
+
+	@Test
+	public void analyticMotion() throws IOException
+	{
+		CircleWorld world = new CircleWorld(700, 500);
+		Camera camera = new Camera(700, 500, 700, 500);
+		Scenes.populate(world, 200, 4L, Scenes.palette(), 30, 70);
+		world.setMotionMode(CircleWorld.MotionMode.ANALYTIC);
+		Scenes.run(world, camera, 1000);
+		assertGolden("analytic-motion", render(world, camera, 700, 500, true));
+	}
+
+	private static BufferedImage render(CircleWorld world, Camera camera,
+			int width, int height, boolean antialiasing)
+	{
+		BufferedImage drawing = Scenes.newDrawing(width, height);
+		Scenes.draw(world, camera, drawing, antialiasing);
+		return drawing;
+	}
+
+	private static void assertGolden(String name, BufferedImage actual)
+			throws IOException
+	{
+		String fileName = name + ".png";
+		if (Boolean.getBoolean("golden.update"))
+		{
+			File golden = new File(goldenDirectory, fileName);
+			golden.getParentFile().mkdirs();
+			ImageIO.write(actual, "png", golden);
+			return;
+		}
+
+		InputStream in = GoldenImageTest.class.getResourceAsStream("/golden/"
+				+ fileName);
+		if (in == null)
+		{
+			fail("no golden image " + fileName
+					+ ", create it with -Dgolden.update=true");
+		}
+		BufferedImage expected;
+		try
+		{
+			expected = ImageIO.read(in);
+		}
+		finally
+		{
+			in.close();
+		}
+		assertTrue(name + ": size differs", expected.getWidth() == actual
+				.getWidth() && expected.getHeight() == actual.getHeight());
+
+		BufferedImage diff = new BufferedImage(actual.getWidth(), actual
+				.getHeight(), BufferedImage.TYPE_INT_RGB);
+		int different = 0;
+		for (int y = 0; y < actual.getHeight(); y++)
+		{
+			for (int x = 0; x < actual.getWidth(); x++)
+			{
+				if (channelDistance(expected.getRGB(x, y), actual.getRGB(x, y))
+						> channelTolerance)
+				{
+					different++;
+					diff.setRGB(x, y, 0xFF0000);
+				}
+			}
+		}
+		double share = (double) different
+				/ (actual.getWidth() * actual.getHeight());
+		if (share > maxDifferentPixels)
+		{
+			// Keep the evidence around for whoever looks into it
+			File failures = new File(failureDirectory);
+			failures.mkdirs();
+			ImageIO.write(actual, "png", new File(failures, name
+					+ "-actual.png"));
+			ImageIO.write(diff, "png", new File(failures, name + "-diff.png"));
+			fail(name + ": " + different + " pixels differ (" + share * 100
+					+ "%), see " + failureDirectory);
+		}
+	}
+
+	private static int channelDistance(int expected, int actual)
+	{
+		int distance = 0;
+		for (int shift = 0; shift < 24; shift += 8)
+		{
+			int e = (expected >> shift) & 0xFF;
+			int a = (actual >> shift) & 0xFF;
+			distance = Math.max(distance, Math.abs(e - a));
+		}
+		return distance;
+	}
+}
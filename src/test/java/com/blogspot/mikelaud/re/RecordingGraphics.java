@@ -0,0 +1,405 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Image;
+import java.awt.Paint;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.BufferedImageOp;
+import java.awt.image.ImageObserver;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderableImage;
+import java.text.AttributedCharacterIterator;
+import java.util.Map;
+
+/**
+ * A Graphics2D that draws to another one, counting the setColor calls on the
+ * way, the state changes CircleBatcher is meant to keep down.
+ */
+class RecordingGraphics extends Graphics2D
+{
+	private final Graphics2D g;
+	private int colorChanges;
+
+	RecordingGraphics(Graphics2D g)
+	{
+		this.g = g;
+		colorChanges = 0;
+	}
+
+	/**
+	 * @return How many times setColor was called
+	 */
+	int getColorChanges()
+	{
+		return colorChanges;
+	}
+
+	public void addRenderingHints(Map<?, ?> a0)
+	{
+		g.addRenderingHints(a0);
+	}
+
+	public void clearRect(int a0, int a1, int a2, int a3)
+	{
+		g.clearRect(a0, a1, a2, a3);
+	}
+
+	public void clip(Shape a0)
+	{
+		g.clip(a0);
+	}
+
+	public void clipRect(int a0, int a1, int a2, int a3)
+	{
+		g.clipRect(a0, a1, a2, a3);
+	}
+
+	public void copyArea(int a0, int a1, int a2, int a3, int a4, int a5)
+	{
+		g.copyArea(a0, a1, a2, a3, a4, a5);
+	}
+
+	public Graphics create()
+	{
+		return new RecordingGraphics((Graphics2D) g.create());
+	}
+
+	public void dispose()
+	{
+		g.dispose();
+	}
+
+	public void draw(Shape a0)
+	{
+		g.draw(a0);
+	}
+
+	public void drawArc(int a0, int a1, int a2, int a3, int a4, int a5)
+	{
+		g.drawArc(a0, a1, a2, a3, a4, a5);
+	}
+
+	public void drawGlyphVector(GlyphVector a0, float a1, float a2)
+	{
+		g.drawGlyphVector(a0, a1, a2);
+	}
+
+	public void drawImage(BufferedImage a0, BufferedImageOp a1, int a2, int a3)
+	{
+		g.drawImage(a0, a1, a2, a3);
+	}
+
+	public boolean drawImage(Image a0, AffineTransform a1, ImageObserver a2)
+	{
+		return g.drawImage(a0, a1, a2);
+	}
+
+	public boolean drawImage(Image a0, int a1, int a2, Color a3,
+			ImageObserver a4)
+	{
+		return g.drawImage(a0, a1, a2, a3, a4);
+	}
+
+	public boolean drawImage(Image a0, int a1, int a2, ImageObserver a3)
+	{
+		return g.drawImage(a0, a1, a2, a3);
+	}
+
+	public boolean drawImage(Image a0, int a1, int a2, int a3, int a4,
+			Color a5, ImageObserver a6)
+	{
+		return g.drawImage(a0, a1, a2, a3, a4, a5, a6);
+	}
+
+	public boolean drawImage(Image a0, int a1, int a2, int a3, int a4,
+			ImageObserver a5)
+	{
+		return g.drawImage(a0, a1, a2, a3, a4, a5);
+	}
+
+	public boolean drawImage(Image a0, int a1, int a2, int a3, int a4,
+			int a5, int a6, int a7, int a8, Color a9, ImageObserver a10)
+	{
+		return g.drawImage(a0, a1, a2, a3, a4, a5, a6, a7, a8, a9, a10);
+	}
+
+	public boolean drawImage(Image a0, int a1, int a2, int a3, int a4,
+			int a5, int a6, int a7, int a8, ImageObserver a9)
+	{
+		return g.drawImage(a0, a1, a2, a3, a4, a5, a6, a7, a8, a9);
+	}
+
+	public void drawLine(int a0, int a1, int a2, int a3)
+	{
+		g.drawLine(a0, a1, a2, a3);
+	}
+
+	public void drawOval(int a0, int a1, int a2, int a3)
+	{
+		g.drawOval(a0, a1, a2, a3);
+	}
+
+	public void drawPolygon(int[] a0, int[] a1, int a2)
+	{
+		g.drawPolygon(a0, a1, a2);
+	}
+
+	public void drawPolyline(int[] a0, int[] a1, int a2)
+	{
+		g.drawPolyline(a0, a1, a2);
+	}
+
+	public void drawRenderableImage(RenderableImage a0, AffineTransform a1)
+	{
+		g.drawRenderableImage(a0, a1);
+	}
+
+	public void drawRenderedImage(RenderedImage a0, AffineTransform a1)
+	{
+		g.drawRenderedImage(a0, a1);
+	}
+
+	public void drawRoundRect(int a0, int a1, int a2, int a3, int a4, int a5)
+	{
+		g.drawRoundRect(a0, a1, a2, a3, a4, a5);
+	}
+
+	public void drawString(AttributedCharacterIterator a0, float a1, float a2)
+	{
+		g.drawString(a0, a1, a2);
+	}
+
+	public void drawString(AttributedCharacterIterator a0, int a1, int a2)
+	{
+		g.drawString(a0, a1, a2);
+	}
+
+	public void drawString(String a0, float a1, float a2)
+	{
+		g.drawString(a0, a1, a2);
+	}
+
+	public void drawString(String a0, int a1, int a2)
+	{
+		g.drawString(a0, a1, a2);
+	}
+
+	public void fill(Shape a0)
+	{
+		g.fill(a0);
+	}
+
+	public void fillArc(int a0, int a1, int a2, int a3, int a4, int a5)
+	{
+		g.fillArc(a0, a1, a2, a3, a4, a5);
+	}
+
+	public void fillOval(int a0, int a1, int a2, int a3)
+	{
+		g.fillOval(a0, a1, a2, a3);
+	}
+
+	public void fillPolygon(int[] a0, int[] a1, int a2)
+	{
+		g.fillPolygon(a0, a1, a2);
+	}
+
+	public void fillRect(int a0, int a1, int a2, int a3)
+	{
+		g.fillRect(a0, a1, a2, a3);
+	}
+
+	public void fillRoundRect(int a0, int a1, int a2, int a3, int a4, int a5)
+	{
+		g.fillRoundRect(a0, a1, a2, a3, a4, a5);
+	}
+
+	public Color getBackground()
+	{
+		return g.getBackground();
+	}
+
+	public Shape getClip()
+	{
+		return g.getClip();
+	}
+
+	public Rectangle getClipBounds()
+	{
+		return g.getClipBounds();
+	}
+
+	public Color getColor()
+	{
+		return g.getColor();
+	}
+
+	public Composite getComposite()
+	{
+		return g.getComposite();
+	}
+
+	public GraphicsConfiguration getDeviceConfiguration()
+	{
+		return g.getDeviceConfiguration();
+	}
+
+	public Font getFont()
+	{
+		return g.getFont();
+	}
+
+	public FontMetrics getFontMetrics(Font a0)
+	{
+		return g.getFontMetrics(a0);
+	}
+
+	public FontRenderContext getFontRenderContext()
+	{
+		return g.getFontRenderContext();
+	}
+
+	public Paint getPaint()
+	{
+		return g.getPaint();
+	}
+
+	public Object getRenderingHint(RenderingHints.Key a0)
+	{
+		return g.getRenderingHint(a0);
+	}
+
+	public RenderingHints getRenderingHints()
+	{
+		return g.getRenderingHints();
+	}
+
+	public Stroke getStroke()
+	{
+		return g.getStroke();
+	}
+
+	public AffineTransform getTransform()
+	{
+		return g.getTransform();
+	}
+
+	public boolean hit(Rectangle a0, Shape a1, boolean a2)
+	{
+		return g.hit(a0, a1, a2);
+	}
+
+	public void rotate(double a0)
+	{
+		g.rotate(a0);
+	}
+
+	public void rotate(double a0, double a1, double a2)
+	{
+		g.rotate(a0, a1, a2);
+	}
+
+	public void scale(double a0, double a1)
+	{
+		g.scale(a0, a1);
+	}
+
+	public void setBackground(Color a0)
+	{
+		g.setBackground(a0);
+	}
+
+	public void setClip(Shape a0)
+	{
+		g.setClip(a0);
+	}
+
+	public void setClip(int a0, int a1, int a2, int a3)
+	{
+		g.setClip(a0, a1, a2, a3);
+	}
+
+	public void setColor(Color a0)
+	{
+		colorChanges++;
+		g.setColor(a0);
+	}
+
+	public void setComposite(Composite a0)
+	{
+		g.setComposite(a0);
+	}
+
+	public void setFont(Font a0)
+	{
+		g.setFont(a0);
+	}
+
+	public void setPaint(Paint a0)
+	{
+		g.setPaint(a0);
+	}
+
+	public void setPaintMode()
+	{
+		g.setPaintMode();
+	}
+
+	public void setRenderingHint(RenderingHints.Key a0, Object a1)
+	{
+		g.setRenderingHint(a0, a1);
+	}
+
+	public void setRenderingHints(Map<?, ?> a0)
+	{
+		g.setRenderingHints(a0);
+	}
+
+	public void setStroke(Stroke a0)
+	{
+		g.setStroke(a0);
+	}
+
+	public void setTransform(AffineTransform a0)
+	{
+		g.setTransform(a0);
+	}
+
+	public void setXORMode(Color a0)
+	{
+		g.setXORMode(a0);
+	}
+
+	public void shear(double a0, double a1)
+	{
+		g.shear(a0, a1);
+	}
+
+	public void transform(AffineTransform a0)
+	{
+		g.transform(a0);
+	}
+
+	public void translate(double a0, double a1)
+	{
+		g.translate(a0, a1);
+	}
+
+	public void translate(int a0, int a1)
+	{
+		g.translate(a0, a1);
+	}
+}
@@ -0,0 +1,135 @@
+package com.blogspot.mikelaud.re;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Coarse throughput floors, to catch a frame getting several times slower,
+ * not a few percent.
+ *
+ * Absolute timings mean little across machines, so each frame is measured
+ * against a calibration baseline taken on the same machine in the same run:
+ * clearing the whole canvas once (what every frame does anyway). A frame may
+ * cost at most maxClears of those. On top of that an absolute floor of
+ * minFps guards against the calibration itself being broken.
+ *
+ * Skip them with -Dperf.skip=true on machines too loaded to time anything.
+ */
+public class RenderThroughputTest
+{
+	private static final int width = 700;
+	private static final int height = 500;
+	private static final double minFps = 30;
+	private static final int warmUpFrames = 100;
+	private static final int measuredFrames = 100;
+	private static final int batches = 3;
+
+	// Nanoseconds to clear the whole canvas once
+	private static double clearNanos;
+
+	@BeforeClass
+	public static void calibrate()
+	{
+		final BufferedImage drawing = Scenes.newDrawing(width, height);
+		clearNanos = measure(new Runnable()
+		{
+			public void run()
+			{
+				Graphics2D g = drawing.createGraphics();
+				g.setColor(Color.LIGHT_GRAY);
+				g.fillRect(0, 0, width, height);
+				g.dispose();
+			}
+		});
+	}
+
+	@Test
+	public void smoothCircles()
+	{
+		CircleWorld world = new CircleWorld(width, height);
+		Scenes.populate(world, 200, 1L, Scenes.palette(), 30, 70);
+		assertFloor("200 smooth circles", world, true, 300);
+	}
+
+	@Test
+	public void aliasedCircles()
+	{
+		CircleWorld world = new CircleWorld(width, height);
+		Scenes.populate(world, 200, 1L, Scenes.palette(), 30, 70);
+		assertFloor("200 aliased circles", world, false, 80);
+	}
+
+	@Test
+	public void culledLargeWorld()
+	{
+		// 16 screens of circles, a frame should cost about one screen
+		CircleWorld world = new CircleWorld(width * 4, height * 4);
+		Scenes.populate(world, 3200, 2L, Scenes.palette(), 30, 70);
+		assertFloor("3200 circles, 1/16 visible", world, true, 300);
+	}
+
+	@Test
+	public void analyticMotion()
+	{
+		CircleWorld world = new CircleWorld(width, height);
+		Scenes.populate(world, 200, 3L, Scenes.palette(), 30, 70);
+		world.setMotionMode(CircleWorld.MotionMode.ANALYTIC);
+		assertFloor("200 analytic circles", world, true, 300);
+	}
+
+	private static void assertFloor(String name, final CircleWorld world,
+			final boolean antialiasing, double maxClears)
+	{
+		assumeFalse("perf tests skipped", Boolean.getBoolean("perf.skip"));
+		final Camera camera = new Camera(width, height, world.getWidth(),
+				world.getHeight());
+		final BufferedImage drawing = Scenes.newDrawing(width, height);
+		double frameNanos = measure(new Runnable()
+		{
+			public void run()
+			{
+				Scenes.run(world, camera, 1);
+				Scenes.draw(world, camera, drawing, antialiasing);
+			}
+		});
+		double clears = frameNanos / clearNanos;
+		double fps = 1e9 / frameNanos;
+		System.out.println(String.format(
+				"%s: %.0f fps, %.1f clears per frame (max %.0f)", name, fps,
+				clears, maxClears));
+		assertTrue(name + ": " + fps + " fps", fps >= minFps);
+		assertTrue(name + ": a frame costs " + clears + " clears",
+				clears <= maxClears);
+	}
+
+	/**
+	 * @return Nanoseconds per run of the best batch, the best one is the
+	 *         least disturbed by GC, JIT and other processes
+	 */
+	private static double measure(Runnable frame)
+	{
+		for (int i = 0; i < warmUpFrames; i++)
+		{
+			frame.run();
+		}
+		double best = Double.MAX_VALUE;
+		for (int b = 0; b < batches; b++)
+		{
+			long start = System.nanoTime();
+			for (int i = 0; i < measuredFrames; i++)
+			{
+				frame.run();
+			}
+			best = Math.min(best, (double) (System.nanoTime() - start)
+					/ measuredFrames);
+		}
+		return best;
+	}
+}
@@ -0,0 +1,113 @@
+package com.blogspot.mikelaud.re;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Fixed, seeded scenes for the tests, drawn the same way the demos draw a
+ * frame, just into a plain BufferedImage instead of a window.
+ */
+final class Scenes
+{
+	// Update step of the scenes, 16 ms is about what a 60 Hz loop hands in
+	static final long step = 16000000L;
+
+	private Scenes()
+	{
+	}
+
+	/**
+	 * Fills a world the way the demos do, but from a fixed seed.
+	 *
+	 * @param world
+	 *            The world to add the circles to
+	 * @param numberOfCircles
+	 *            How many circles to add
+	 * @param seed
+	 *            Seed of the positions, sizes, directions and speeds
+	 * @param palette
+	 *            The colors to pick from, one color for a uniform scene
+	 * @param minSize
+	 *            Smallest circle size
+	 * @param maxSize
+	 *            Largest circle size
+	 */
+	static void populate(CircleWorld world, int numberOfCircles, long seed,
+			Color[] palette, int minSize, int maxSize)
+	{
+		Random random = new Random(seed);
+		for (int i = 0; i < numberOfCircles; i++)
+		{
+			world.addRandomCircle(random, minSize, maxSize, palette);
+		}
+	}
+
+	/**
+	 * Runs a number of fixed size updates.
+	 */
+	static void run(CircleWorld world, Camera camera, int updates)
+	{
+		Rectangle2D.Float viewport = new Rectangle2D.Float();
+		for (int i = 0; i < updates; i++)
+		{
+			camera.getViewport(viewport);
+			world.update(step, viewport);
+		}
+	}
+
+	/**
+	 * Draws one frame of the world like the demos do.
+	 *
+	 * @param drawing
+	 *            The image to draw to, its size is the camera's view size
+	 * @param antialiasing
+	 *            Whether to draw smooth circles
+	 */
+	static void draw(CircleWorld world, Camera camera, BufferedImage drawing,
+			boolean antialiasing)
+	{
+		draw(world, camera, drawing, antialiasing, world.getWorldTime());
+	}
+
+	/**
+	 * Draws one frame of the world as it was (or will be) at a given time,
+	 * the world has to move analytically unless that is its current time.
+	 */
+	static void draw(CircleWorld world, Camera camera, BufferedImage drawing,
+			boolean antialiasing, long time)
+	{
+		Graphics2D drawingBoard = drawing.createGraphics();
+		if (antialiasing)
+		{
+			drawingBoard.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+					RenderingHints.VALUE_ANTIALIAS_ON);
+		}
+		drawingBoard.setColor(Color.GRAY);
+		drawingBoard.fillRect(0, 0, drawing.getWidth(), drawing.getHeight());
+		Rectangle2D.Float viewport = new Rectangle2D.Float();
+		camera.applyTo(drawingBoard, viewport);
+		drawingBoard.setColor(Color.LIGHT_GRAY);
+		drawingBoard.fillRect(0, 0, world.getWidth(), world.getHeight());
+		world.draw(drawingBoard, viewport, time);
+		drawingBoard.dispose();
+	}
+
+	static BufferedImage newDrawing(int width, int height)
+	{
+		// What createCompatibleImage hands out on the usual 24/32 bit screen
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * @return A few fixed colors, for scenes with several batches
+	 */
+	static Color[] palette()
+	{
+		return new Color[] { Color.DARK_GRAY, new Color(200, 40, 40),
+				new Color(40, 120, 200), new Color(60, 160, 60) };
+	}
+}
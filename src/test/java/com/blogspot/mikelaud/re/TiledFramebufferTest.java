@@ -0,0 +1,109 @@
+package com.blogspot.mikelaud.re;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+
+public class TiledFramebufferTest
+{
+	@Test
+	public void drawsLikeTheDenseImage()
+	{
+		assertSameAsDense(false, 1f);
+		assertSameAsDense(true, 1f);
+		// Zoomed in, circles cross tile edges at fractional positions
+		assertSameAsDense(false, 1.7f);
+	}
+
+	@Test
+	public void keepsOnlyTheTilesDrawnOn()
+	{
+		CircleWorld world = new CircleWorld(4096, 4096);
+		Camera camera = new Camera(4096, 4096, 4096, 4096);
+		TiledFramebuffer tiled = new TiledFramebuffer(4096, 4096,
+				Color.LIGHT_GRAY);
+
+		MovingCircle corner = still(10, 10, 40);
+		world.add(corner);
+		frame(world, camera, tiled);
+		assertEquals(1, tiled.getTileCount());
+
+		// Sitting on the corner of four tiles
+		MovingCircle across = still(250, 250, 20);
+		world.add(across);
+		frame(world, camera, tiled);
+		assertEquals(4, tiled.getTileCount());
+
+		// The tiles that became empty go back to the pool
+		world.remove(across);
+		frame(world, camera, tiled);
+		assertEquals(1, tiled.getTileCount());
+		assertEquals(3, tiled.getPooledTileCount());
+
+		// ... and are reused from there
+		world.remove(corner);
+		world.add(still(3000, 3000, 40));
+		frame(world, camera, tiled);
+		assertEquals(1, tiled.getTileCount());
+		assertEquals(3, tiled.getPooledTileCount());
+
+		// Only the live tile shows up, an eighth of the size
+		BufferedImage screen = Scenes.newDrawing(512, 512);
+		Graphics2D g = screen.createGraphics();
+		tiled.present(g, 0, 0, 512, 512);
+		g.dispose();
+		assertEquals(Color.LIGHT_GRAY.getRGB(), screen.getRGB(3, 3));
+		assertFalse(Color.LIGHT_GRAY.getRGB() == screen.getRGB(377, 377));
+	}
+
+	private static void assertSameAsDense(boolean antialiasing, float zoom)
+	{
+		CircleWorld world = new CircleWorld(2048, 1536);
+		Scenes.populate(world, 300, 37, Scenes.palette(), 30, 70);
+		Camera camera = new Camera(700, 500, world.getWidth(), world
+				.getHeight());
+		camera.zoom(zoom);
+		Scenes.run(world, camera, 30);
+
+		BufferedImage dense = Scenes.newDrawing(700, 500);
+		Scenes.draw(world, camera, dense, antialiasing);
+
+		TiledFramebuffer tiled = new TiledFramebuffer(700, 500,
+				Color.LIGHT_GRAY);
+		tiled.setAntialiasing(antialiasing);
+		frame(world, camera, tiled);
+		BufferedImage presented = Scenes.newDrawing(700, 500);
+		Graphics2D g = presented.createGraphics();
+		tiled.present(g, 0, 0, 700, 500);
+		g.dispose();
+
+		for (int y = 0; y < 500; y++)
+		{
+			for (int x = 0; x < 700; x++)
+			{
+				assertEquals("pixel " + x + "," + y, dense.getRGB(x, y),
+						presented.getRGB(x, y));
+			}
+		}
+	}
+
+	private static void frame(CircleWorld world, Camera camera,
+			TiledFramebuffer tiled)
+	{
+		Rectangle2D viewport = tiled.begin(camera);
+		world.draw(tiled, viewport);
+		tiled.end();
+	}
+
+	private static MovingCircle still(float x, float y, int size)
+	{
+		return new MovingCircle(x, y, size, size, false, false, 0,
+				Color.DARK_GRAY);
+	}
+}
@@ -0,0 +1,210 @@
+package com.blogspot.mikelaud.re;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class UpdateSchedulerTest
+{
+	@Test
+	public void doesNotDriftWhenTheTaskTakesTime() throws InterruptedException
+	{
+		final int numberOfTicks = 40;
+		final long[] startTimes = new long[numberOfTicks];
+		final CountDownLatch done = new CountDownLatch(1);
+		UpdateScheduler scheduler = new UpdateScheduler(new Runnable()
+		{
+			private int tick;
+
+			public void run()
+			{
+				if (tick < numberOfTicks)
+				{
+					startTimes[tick++] = System.nanoTime();
+					// A fixed delay timer would add this to every period
+					sleep(3);
+					if (tick == numberOfTicks)
+					{
+						done.countDown();
+					}
+				}
+			}
+		}, 10, UpdateScheduler.OverrunPolicy.SKIP);
+		scheduler.start();
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		scheduler.stop();
+
+		// 39 periods of 10 ms (the first tick may start a little late), a
+		// drifting timer would take 39 * 13 ms
+		long elapsed = TimeUnit.NANOSECONDS.toMillis(startTimes[numberOfTicks
+				- 1]
+				- startTimes[0]);
+		assertTrue("elapsed " + elapsed + " ms", elapsed >= 370
+				&& elapsed <= 440);
+	}
+
+	@Test
+	public void changesTheRateWithoutRescheduling()
+			throws InterruptedException
+	{
+		final long[] startTimes = new long[25];
+		final CountDownLatch thirdTick = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		UpdateScheduler scheduler = new UpdateScheduler(new Runnable()
+		{
+			private int tick;
+
+			public void run()
+			{
+				if (tick < startTimes.length)
+				{
+					startTimes[tick++] = System.nanoTime();
+					if (tick == 3)
+					{
+						thirdTick.countDown();
+					}
+					if (tick == startTimes.length)
+					{
+						done.countDown();
+					}
+				}
+			}
+		}, 40, UpdateScheduler.OverrunPolicy.SKIP);
+		scheduler.start();
+		assertTrue(thirdTick.await(10, TimeUnit.SECONDS));
+		// Once the fourth tick is pending, 40 ms after the third
+		Thread.sleep(10);
+		scheduler.setUpdatePeriod(5, TimeUnit.MILLISECONDS);
+		assertTrue(done.await(10, TimeUnit.SECONDS));
+		scheduler.stop();
+
+		// The pending deadline was kept, the period changed after it
+		long pending = TimeUnit.NANOSECONDS.toMillis(startTimes[3]
+				- startTimes[2]);
+		long fast = TimeUnit.NANOSECONDS.toMillis(startTimes[24]
+				- startTimes[4]);
+		assertTrue("pending " + pending + " ms", pending >= 25
+				&& pending <= 55);
+		assertTrue("fast " + fast + " ms", fast >= 80 && fast <= 130);
+		assertEquals(5000000L, scheduler.getUpdatePeriodNanos());
+	}
+
+	@Test
+	public void ticksAtPeriodsBelowAMillisecond() throws InterruptedException
+	{
+		UpdateScheduler scheduler = new UpdateScheduler(new Runnable()
+		{
+			public void run()
+			{
+			}
+		}, 500, TimeUnit.MICROSECONDS, UpdateScheduler.OverrunPolicy.SKIP);
+		assertEquals(500000, scheduler.getUpdatePeriodNanos());
+		scheduler.start();
+		Thread.sleep(200);
+		scheduler.stop();
+		// 400 deadlines, of which some may be skipped on a busy machine
+		long deadlines = scheduler.getTicks() + scheduler.getSkippedTicks();
+		assertTrue("deadlines " + deadlines, deadlines >= 300);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAPeriodOfZero()
+	{
+		new UpdateScheduler(new Runnable()
+		{
+			public void run()
+			{
+			}
+		}, 0, TimeUnit.NANOSECONDS, UpdateScheduler.OverrunPolicy.SKIP);
+	}
+
+	@Test
+	public void skipsOrCatchesUpAfterAStall() throws InterruptedException
+	{
+		Stall skip = run(UpdateScheduler.OverrunPolicy.SKIP);
+		// Ticks at 0 and 20 ms, the stall ends at about 130 ms: the deadlines
+		// 40 to 120 are dropped and the next tick waits for 140 (a little
+		// less, the first tick ran a little after the start)
+		assertTrue("skipped " + skip.skipped, skip.skipped >= 4);
+		assertTrue("ticks " + skip.ticks, skip.ticks <= 17);
+		assertTrue("gap " + skip.gapAfterStall + " us",
+				skip.gapAfterStall >= 1000);
+
+		Stall catchUp = run(UpdateScheduler.OverrunPolicy.CATCH_UP);
+		// Every deadline runs, the missed ones right after the stall
+		assertEquals(0, catchUp.skipped);
+		assertTrue("ticks " + catchUp.ticks, catchUp.ticks >= 18);
+		assertTrue("gap " + catchUp.gapAfterStall + " us",
+				catchUp.gapAfterStall <= 2000);
+	}
+
+	/**
+	 * Runs 400 ms of 20 ms ticks, the second one stalling until 130 ms after
+	 * the first, halfway between two deadlines.
+	 */
+	private static Stall run(UpdateScheduler.OverrunPolicy policy)
+			throws InterruptedException
+	{
+		final long[] firstTick = new long[1];
+		final long[] stallEnd = new long[1];
+		final long[] afterStall = new long[1];
+		UpdateScheduler scheduler = new UpdateScheduler(new Runnable()
+		{
+			private int tick;
+
+			public void run()
+			{
+				tick++;
+				if (tick == 1)
+				{
+					firstTick[0] = System.nanoTime();
+				}
+				else if (tick == 2)
+				{
+					sleep(130 - TimeUnit.NANOSECONDS.toMillis(System
+							.nanoTime()
+							- firstTick[0]));
+					stallEnd[0] = System.nanoTime();
+				}
+				else if (tick == 3)
+				{
+					afterStall[0] = System.nanoTime();
+				}
+			}
+		}, 20, policy);
+		scheduler.start();
+		Thread.sleep(400);
+		scheduler.stop();
+		Thread.sleep(50);
+
+		Stall stall = new Stall();
+		stall.ticks = scheduler.getTicks();
+		stall.skipped = scheduler.getSkippedTicks();
+		stall.gapAfterStall = TimeUnit.NANOSECONDS.toMicros(afterStall[0]
+				- stallEnd[0]);
+		return stall;
+	}
+
+	private static void sleep(long millis)
+	{
+		try
+		{
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class Stall
+	{
+		long ticks;
+		long skipped;
+		long gapAfterStall;
+	}
+}
@@ -0,0 +1,165 @@
+package com.blogspot.mikelaud.re;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+public class WorldHostTest
+{
+	@Test
+	public void runsEverySimulationWithoutOverlap() throws InterruptedException
+	{
+		WorldHost host = new WorldHost(2);
+		final AtomicBoolean overlapped = new AtomicBoolean();
+		List<WorldHost.Entry> entries = new ArrayList<WorldHost.Entry>();
+		for (int i = 0; i < 10; i++)
+		{
+			entries.add(host.add(new WorldHost.Simulation()
+			{
+				private final AtomicBoolean busy = new AtomicBoolean();
+
+				public void frame(long elapsedTime)
+				{
+					if (!busy.compareAndSet(false, true))
+					{
+						overlapped.set(true);
+					}
+					// Hold it for a while, so a second worker running the
+					// same simulation would find it taken
+					try
+					{
+						Thread.sleep(1);
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+					}
+					busy.set(false);
+				}
+			}, 10, 10));
+		}
+		host.start();
+		Thread.sleep(300);
+		host.stop();
+
+		assertFalse(overlapped.get());
+		for (WorldHost.Entry entry : entries)
+		{
+			assertTrue(entry.getFrames() >= 10);
+		}
+	}
+
+	@Test
+	public void runsEarliestDeadlineFirst() throws InterruptedException
+	{
+		WorldHost host = new WorldHost(1);
+		final List<String> order = Collections
+				.synchronizedList(new ArrayList<String>());
+		final CountDownLatch bothRan = new CountDownLatch(2);
+		host.add(new Named("slow", order, bothRan), 100, 100);
+		host.add(new Named("fast", order, bothRan), 10, 10);
+		host.start();
+		assertTrue(bothRan.await(5, TimeUnit.SECONDS));
+		host.stop();
+
+		// Both were due at once, the one with the nearer deadline goes first
+		assertEquals("fast", order.get(0));
+	}
+
+	@Test
+	public void keepsAnOverrunningSimulationFromHoggingAWorker()
+			throws InterruptedException
+	{
+		WorldHost host = new WorldHost(1);
+		// Always three times over its budget, and over its whole period
+		WorldHost.Entry heavy = host.add(new Sleeping(12), 10, 4);
+		WorldHost.Entry light = host.add(new Sleeping(1), 10, 10);
+		host.start();
+		Thread.sleep(600);
+		host.stop();
+
+		// The light one keeps (about) its 60 frames, the heavy one gets the
+		// time left over. Without the penalty they take turns, 45 each.
+		assertTrue("light " + light.getFrames(), light.getFrames() >= 54);
+		assertTrue("heavy " + heavy.getFrames(), heavy.getFrames() > 0);
+	}
+
+	@Test
+	public void paintsAWindowedSceneItUpdates() throws InterruptedException
+	{
+		CircleWorld world = new CircleWorld(350, 250);
+		Scenes.populate(world, 20, 1L, Scenes.palette(), 30, 70);
+		WorldHost.WindowedScene scene = new WorldHost.WindowedScene(world,
+				new Camera(350, 250, 350, 250));
+		scene.setSize(scene.getPreferredSize());
+		WorldHost host = new WorldHost(1);
+		WorldHost.Entry entry = host.add(scene, 5, 5);
+		host.start();
+		Thread.sleep(100);
+		host.stop();
+		assertTrue(entry.getFrames() >= 5);
+		assertTrue(world.getWorldTime() > 0);
+
+		// Paint it like Swing would
+		BufferedImage image = Scenes.newDrawing(350, 250);
+		Graphics2D g = image.createGraphics();
+		scene.paint(g);
+		g.dispose();
+		assertEquals(20, world.getDrawnCount());
+		assertEquals(Color.LIGHT_GRAY.getRGB(), image.getRGB(0, 0));
+	}
+
+	private static class Sleeping implements WorldHost.Simulation
+	{
+		private final long millis;
+
+		Sleeping(long millis)
+		{
+			this.millis = millis;
+		}
+
+		public void frame(long elapsedTime)
+		{
+			try
+			{
+				Thread.sleep(millis);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static class Named implements WorldHost.Simulation
+	{
+		private final String name;
+		private final List<String> order;
+		private final CountDownLatch ran;
+
+		Named(String name, List<String> order, CountDownLatch ran)
+		{
+			this.name = name;
+			this.order = order;
+			this.ran = ran;
+		}
+
+		public void frame(long elapsedTime)
+		{
+			order.add(name);
+			ran.countDown();
+		}
+	}
+}